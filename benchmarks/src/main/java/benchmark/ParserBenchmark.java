@@ -0,0 +1,54 @@
+package benchmark;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import stackmachine.compiler.sprint2.IntermediateCode;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBenchmark {
+
+    @Param({ "100", "10000" })
+    public int size;
+
+    @Param({ "slu", "dfa" })
+    public String scanner;
+
+    private String declarations;
+    private String program;
+    private stackmachine.compiler.sprint1.Parser declared;
+
+    @Setup
+    public void setup() throws Exception {
+        this.declarations = ProgramGenerator.declarations(this.size);
+        this.program = ProgramGenerator.program(this.size);
+
+        this.declared = new stackmachine.compiler.sprint1.Parser(Scanners.of(this.scanner, this.declarations));
+        this.declared.compile();
+    }
+
+    // sprint1: declarations into the symbol table
+    @Benchmark
+    public String sprint1Compile() throws Exception {
+        stackmachine.compiler.sprint1.Parser parser = new stackmachine.compiler.sprint1.Parser(Scanners.of(this.scanner, this.declarations));
+
+        parser.compile();
+
+        return parser.symbolTable();
+    }
+
+    @Benchmark
+    public String sprint1SymbolTable() {
+        return this.declared.symbolTable();
+    }
+
+    // sprint2: the whole program into the code as a String
+    @Benchmark
+    public String sprint2Compile() throws Exception {
+        return new stackmachine.compiler.sprint2.Parser(Scanners.of(this.scanner, this.program), new IntermediateCode()).compile();
+    }
+}
@@ -0,0 +1,159 @@
+package benchmark;
+
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Random;
+
+/*
+ *  Synthetic inputs for the benchmarks
+ *
+ *     declarations   void main { ... } with n declarations, the language of sprint1.Parser
+ *     program        void main { ... } with declarations and n assignments, the language of sprint2.Parser
+ *     expression     infix expression of n operands, the language of the translators
+ *     nested         infix expression with n levels of parentheses
+ *
+ *  The inputs are the same for a given size (fixed seed). Divisors are never zero, so every
+ *  expression can be evaluated.
+ *
+ *  Usage: java benchmark.ProgramGenerator declarations|program|expression|nested size file
+ *
+ */
+
+public class ProgramGenerator {
+    private static final String[] TYPES = { "int", "float", "boolean" };
+    private static final String[] OPERATORS = { "+", "-", "*", "/", "%" };
+
+    public static String declarations(int count) {
+        StringBuilder program = new StringBuilder("void main {\n");
+
+        for (int i = 0; i < count; i++) {
+            program.append("    ").append(TYPES[i % TYPES.length]).append(" v").append(i);
+
+            for (int j = 1; j < 4; j++) {
+                program.append(", v").append(i).append('_').append(j);
+            }
+
+            program.append(";\n");
+        }
+
+        return program.append("}\n").toString();
+    }
+
+    public static String program(int statements) {
+        Random random = new Random(statements);
+        int variables = Math.max(3, (int) Math.sqrt(statements));
+        StringBuilder program = new StringBuilder("void main {\n");
+
+        for (int i = 0; i < variables; i++) {
+            program.append("    int v").append(i).append(" = ").append(random.nextInt(100)).append(";\n");
+        }
+
+        for (int i = 0; i < statements; i++) {
+            program.append("    v").append(random.nextInt(variables)).append(" = ");
+
+            term(program, random, variables, 4);
+
+            program.append(";\n");
+        }
+
+        return program.append("}\n").toString();
+    }
+
+    public static String expression(int operands) {
+        Random random = new Random(operands);
+        StringBuilder expression = new StringBuilder();
+
+        expression.append(1 + random.nextInt(100));
+
+        for (int i = 1; i < operands; i++) {
+            String operator = OPERATORS[random.nextInt(OPERATORS.length)];
+
+            expression.append(' ').append(operator).append(' ').append(1 + random.nextInt(100));
+        }
+
+        return expression.toString();
+    }
+
+    // (((1 + 2) * 3) + 4 ...) and 1 + (2 * (3 + (4 ...))) alternately, so both recursions go deep
+    public static String nested(int depth) {
+        StringBuilder expression = new StringBuilder();
+
+        for (int i = 0; i < depth; i++) {
+            if (i % 2 == 0) {
+                expression.append('(');
+            } else {
+                expression.append(i % 7 + 1).append(i % 3 == 0 ? " * (" : " + (");
+            }
+        }
+
+        expression.append(depth + 1);
+
+        for (int i = depth - 1; i >= 0; i--) {
+            if (i % 2 == 0) {
+                expression.append(i % 3 == 0 ? " - " : " + ").append(i % 5 + 1).append(')');
+            } else {
+                expression.append(')');
+            }
+        }
+
+        return expression.toString();
+    }
+
+    // Random term of variables and constants, divisors are non-zero constants
+    private static void term(StringBuilder program, Random random, int variables, int depth) {
+        operand(program, random, variables, depth);
+
+        int operators = random.nextInt(4);
+
+        for (int i = 0; i < operators; i++) {
+            String operator = OPERATORS[random.nextInt(OPERATORS.length)];
+
+            program.append(' ').append(operator).append(' ');
+
+            if (operator.equals("/") || operator.equals("%")) {
+                program.append(1 + random.nextInt(9));
+            } else {
+                operand(program, random, variables, depth);
+            }
+        }
+    }
+
+    private static void operand(StringBuilder program, Random random, int variables, int depth) {
+        int choice = random.nextInt(depth > 0 ? 5 : 4);
+
+        if (choice < 2) {
+            program.append('v').append(random.nextInt(variables));
+        } else if (choice < 4) {
+            program.append(random.nextInt(1000));
+        } else {
+            program.append('(');
+            term(program, random, variables, depth - 1);
+            program.append(')');
+        }
+    }
+
+    public static void main(String[] args) {
+        try {
+
+            int size = Integer.parseInt(args[1]);
+            String text;
+
+            switch (args[0]) {
+                case "declarations": text = declarations(size); break;
+                case "program":      text = program(size); break;
+                case "expression":   text = expression(size); break;
+                case "nested":       text = nested(size); break;
+                default: throw new Exception("Unknown input '" + args[0] + "'");
+            }
+
+            try (Writer output = Files.newBufferedWriter(Paths.get(args[2]), StandardCharsets.UTF_8)) {
+                output.write(text);
+            }
+
+        } catch (Exception e) {
+            System.out.println(e.getMessage());
+        }
+    }
+}
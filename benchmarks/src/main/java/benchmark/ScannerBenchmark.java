@@ -0,0 +1,41 @@
+package benchmark;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import slu.compiler.*;
+
+// Tokens of a whole program per second (the score is programs per second, see the size)
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScannerBenchmark {
+
+    @Param({ "100", "10000" })
+    public int statements;
+
+    @Param({ "slu", "dfa" })
+    public String scanner;
+
+    private String program;
+
+    @Setup
+    public void setup() {
+        this.program = ProgramGenerator.program(this.statements);
+    }
+
+    @Benchmark
+    public int tokens() throws Exception {
+        IScanner scanner = Scanners.of(this.scanner, this.program);
+        int tokens = 0;
+
+        while (!"null".equals(scanner.getToken().getName())) {
+            tokens++;
+        }
+
+        return tokens;
+    }
+}
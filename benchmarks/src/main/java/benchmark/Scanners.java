@@ -0,0 +1,16 @@
+package benchmark;
+
+import lexer.DfaScanner;
+import slu.compiler.*;
+
+// The scanner the benchmarks run on: "slu" for slu.compiler.Scanner, "dfa" for lexer.DfaScanner
+
+final class Scanners {
+
+    private Scanners() {
+    }
+
+    static IScanner of(String scanner, String program) throws Exception {
+        return scanner.equals("dfa") ? new DfaScanner(program) : new Scanner(program);
+    }
+}
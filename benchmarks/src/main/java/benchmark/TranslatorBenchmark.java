@@ -0,0 +1,56 @@
+package benchmark;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+// The shape is a flat expression of size operands or an expression nested size levels deep
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TranslatorBenchmark {
+
+    @Param({ "100", "1000" })
+    public int size;
+
+    @Param({ "flat", "nested" })
+    public String shape;
+
+    @Param({ "slu", "dfa" })
+    public String scanner;
+
+    private String expression;
+    private translator2.PostfixTranslator translated;
+
+    @Setup
+    public void setup() throws Exception {
+        this.expression = this.shape.equals("flat") ? ProgramGenerator.expression(this.size) : ProgramGenerator.nested(this.size);
+
+        this.translated = new translator2.PostfixTranslator(Scanners.of(this.scanner, this.expression));
+        this.translated.translate();
+    }
+
+    @Benchmark
+    public String translator1Translate() throws Exception {
+        return new translator1.PostfixTranslator(Scanners.of(this.scanner, this.expression)).translate();
+    }
+
+    @Benchmark
+    public String translator2Translate() throws Exception {
+        return new translator2.PostfixTranslator(Scanners.of(this.scanner, this.expression)).translate();
+    }
+
+    @Benchmark
+    public int translator2Evaluate() throws Exception {
+        return this.translated.evaluate();
+    }
+
+    // Parse and evaluate in one pass
+    @Benchmark
+    public int translator2Interpret() throws Exception {
+        return new translator2.PostfixTranslator(Scanners.of(this.scanner, this.expression)).interpret();
+    }
+}
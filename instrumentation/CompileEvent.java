@@ -0,0 +1,67 @@
+package instrumentation;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+// Flight Recorder event of a compile (or translation): its duration, the counters and the time of every phase
+
+@Name("compiler.Compile")
+@Label("Compile")
+@Category("Compiler")
+@Description("A compile or translation with the time of each phase")
+@StackTrace(false)
+class CompileEvent extends Event {
+    @Label("Program")
+    String program;
+
+    @Label("Output")
+    String output;
+
+    @Label("Succeeded")
+    boolean succeeded;
+
+    @Label("Tokens")
+    long tokens;
+
+    @Label("Instructions")
+    long instructions;
+
+    @Label("Symbols")
+    long symbols;
+
+    @Label("Max Depth")
+    int maxDepth;
+
+    @Label("Scan Time")
+    @Timespan
+    long scanTime;
+
+    @Label("Parse Time")
+    @Timespan
+    long parseTime;
+
+    @Label("Symbol Table Time")
+    @Timespan
+    long symbolTime;
+
+    @Label("Emit Time")
+    @Timespan
+    long emitTime;
+
+    @Label("Optimize Time")
+    @Timespan
+    long optimizeTime;
+
+    @Label("Output Time")
+    @Timespan
+    long outputTime;
+
+    @Label("Cache Time")
+    @Timespan
+    long cacheTime;
+}
@@ -0,0 +1,169 @@
+package instrumentation;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ *  Counters and phase timers of the compiles and translations, shared by any number of threads
+ *
+ *  A compiler with metrics starts a Measurement per compile, the decorated scanner, symbol table and
+ *  intermediate code fill it, and record() adds it to the totals and commits it as a CompileEvent
+ *  when Flight Recorder is on. A compiler without metrics (the default) only tests for null at the
+ *  start and end of each phase, nothing is counted per token or instruction. With metrics every token,
+ *  instruction and symbol table call reads the clock twice, which about doubles the compile time:
+ *  compare the phases with each other rather than with an unmeasured compile.
+ *
+ *  -Dcompiler.metrics=true gives every compiler and translator the metrics of the process (global()).
+ *
+ */
+
+public class CompilerMetrics implements ICompilerMetrics {
+    public static final boolean ENABLED = Boolean.getBoolean("compiler.metrics");
+
+    private static final CompilerMetrics GLOBAL = new CompilerMetrics();
+
+    private final LongAdder compiles = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder tokens = new LongAdder();
+    private final LongAdder instructions = new LongAdder();
+    private final LongAdder symbols = new LongAdder();
+    private final LongAccumulator maxDepth = new LongAccumulator(Math::max, 0);
+    private final LongAdder[] times = new LongAdder[Measurement.phases()];
+
+    public CompilerMetrics() {
+        for (int phase = 0; phase < this.times.length; phase++) {
+            this.times[phase] = new LongAdder();
+        }
+    }
+
+    // The metrics of the process with -Dcompiler.metrics=true, null (no metrics) otherwise
+    public static ICompilerMetrics global() {
+        return ENABLED ? GLOBAL : null;
+    }
+
+    @Override
+    public Measurement start(String program, String output) {
+        return new Measurement(program, output);
+    }
+
+    @Override
+    public void record(Measurement measurement) {
+        measurement.enter(Measurement.OTHER);
+
+        this.compiles.increment();
+
+        if (measurement.failed) {
+            this.errors.increment();
+        }
+
+        this.tokens.add(measurement.tokens);
+        this.instructions.add(measurement.instructions);
+        this.symbols.add(measurement.symbols);
+        this.maxDepth.accumulate(measurement.maxDepth);
+
+        for (int phase = 0; phase < this.times.length; phase++) {
+            this.times[phase].add(measurement.times[phase]);
+        }
+
+        CompileEvent event = measurement.event;
+
+        if (event.shouldCommit()) {
+            event.program = measurement.program;
+            event.output = measurement.output;
+            event.succeeded = !measurement.failed;
+            event.tokens = measurement.tokens;
+            event.instructions = measurement.instructions;
+            event.symbols = measurement.symbols;
+            event.maxDepth = measurement.maxDepth;
+            event.scanTime = measurement.times[Measurement.SCAN];
+            event.parseTime = measurement.times[Measurement.PARSE];
+            event.symbolTime = measurement.times[Measurement.SYMBOLS];
+            event.emitTime = measurement.times[Measurement.EMIT];
+            event.optimizeTime = measurement.times[Measurement.OPTIMIZE];
+            event.outputTime = measurement.times[Measurement.OUTPUT];
+            event.cacheTime = measurement.times[Measurement.CACHE];
+            event.commit();
+        }
+    }
+
+    @Override
+    public long getCompiles() {
+        return this.compiles.sum();
+    }
+
+    @Override
+    public long getErrors() {
+        return this.errors.sum();
+    }
+
+    @Override
+    public long getTokens() {
+        return this.tokens.sum();
+    }
+
+    @Override
+    public long getInstructions() {
+        return this.instructions.sum();
+    }
+
+    @Override
+    public long getSymbols() {
+        return this.symbols.sum();
+    }
+
+    @Override
+    public int getMaxDepth() {
+        return (int) this.maxDepth.get();
+    }
+
+    // Nanoseconds spent in the phase (Measurement.SCAN, PARSE, ...) by all the compiles
+    @Override
+    public long getTime(int phase) {
+        return this.times[phase].sum();
+    }
+
+    // Every counter and the time of every phase ("time.scan", ... in nanoseconds), read at once
+    @Override
+    public Map<String, Long> snapshot() {
+        Map<String, Long> snapshot = new LinkedHashMap<String, Long>();
+
+        snapshot.put("compiles", getCompiles());
+        snapshot.put("errors", getErrors());
+        snapshot.put("tokens", getTokens());
+        snapshot.put("instructions", getInstructions());
+        snapshot.put("symbols", getSymbols());
+        snapshot.put("max-depth", (long) getMaxDepth());
+
+        for (int phase = 0; phase < this.times.length; phase++) {
+            snapshot.put("time." + Measurement.phase(phase), getTime(phase));
+        }
+
+        return Collections.unmodifiableMap(snapshot);
+    }
+
+    @Override
+    public String report() {
+        Map<String, Long> snapshot = snapshot();
+        long total = 0;
+
+        for (int phase = 0; phase < this.times.length; phase++) {
+            total = total + snapshot.get("time." + Measurement.phase(phase));
+        }
+
+        StringBuilder report = new StringBuilder();
+
+        report.append(String.format("compiles: %d, errors: %d, tokens: %d, instructions: %d, symbols: %d, max depth: %d%n",
+                snapshot.get("compiles"), snapshot.get("errors"), snapshot.get("tokens"), snapshot.get("instructions"), snapshot.get("symbols"), snapshot.get("max-depth")));
+
+        for (int phase = 0; phase < this.times.length; phase++) {
+            long time = snapshot.get("time." + Measurement.phase(phase));
+
+            report.append(String.format("%-9s %10.3f ms %5.1f%%%n", Measurement.phase(phase), time / 1e6, total == 0 ? 0.0 : 100.0 * time / total));
+        }
+
+        return report.toString();
+    }
+}
@@ -0,0 +1,19 @@
+package instrumentation;
+
+import java.util.Map;
+
+public interface ICompilerMetrics {
+
+    public Measurement start(String program, String output);
+    public void record(Measurement measurement);
+    public long getCompiles();
+    public long getErrors();
+    public long getTokens();
+    public long getInstructions();
+    public long getSymbols();
+    public int getMaxDepth();
+    public long getTime(int phase);
+    public Map<String, Long> snapshot();
+    public String report();
+
+}
@@ -0,0 +1,63 @@
+package instrumentation;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.channels.WritableByteChannel;
+import java.util.List;
+import stackmachine.compiler.sprint2.IIntermediateCode;
+
+// Intermediate code that counts the instructions and charges the time of generating them to the emit phase
+
+public class InstrumentedCode implements IIntermediateCode {
+    private final IIntermediateCode code;
+    private final Measurement measurement;
+
+    public InstrumentedCode(IIntermediateCode code, Measurement measurement) {
+        this.code = code;
+        this.measurement = measurement;
+    }
+
+    @Override
+    public void generate(String code) throws IOException {
+        int phase = this.measurement.enter(Measurement.EMIT);
+
+        try {
+            this.measurement.countInstruction();
+
+            this.code.generate(code);
+        } finally {
+            this.measurement.enter(phase);
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        int phase = this.measurement.enter(Measurement.EMIT);
+
+        try {
+            this.code.flush();
+        } finally {
+            this.measurement.enter(phase);
+        }
+    }
+
+    @Override
+    public List<String> getInstructions() {
+        return this.code.getInstructions();
+    }
+
+    @Override
+    public void writeTo(Writer output) throws IOException {
+        this.code.writeTo(output);
+    }
+
+    @Override
+    public void writeTo(WritableByteChannel output) throws IOException {
+        this.code.writeTo(output);
+    }
+
+    @Override
+    public String toString() {
+        return this.code.toString();
+    }
+}
@@ -0,0 +1,39 @@
+package instrumentation;
+
+import slu.compiler.IScanner;
+import slu.compiler.IToken;
+
+// Scanner that counts the tokens and charges the time of getToken to the scan phase
+
+public class InstrumentedScanner implements IScanner {
+    private final IScanner scanner;
+    private final Measurement measurement;
+
+    public InstrumentedScanner(IScanner scanner, Measurement measurement) {
+        this.scanner = scanner;
+        this.measurement = measurement;
+    }
+
+    @Override
+    public IToken getToken() {
+        int phase = this.measurement.enter(Measurement.SCAN);
+
+        try {
+            this.measurement.countToken();
+
+            return this.scanner.getToken();
+        } finally {
+            this.measurement.enter(phase);
+        }
+    }
+
+    @Override
+    public int getLine() {
+        return this.scanner.getLine();
+    }
+
+    @Override
+    public String getLexeme(String tokenName) {
+        return this.scanner.getLexeme(tokenName);
+    }
+}
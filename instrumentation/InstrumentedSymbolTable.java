@@ -0,0 +1,94 @@
+package instrumentation;
+
+import slu.compiler.IDataType;
+import stackmachine.compiler.ISymbolTable;
+
+// Symbol table that counts the declarations and charges the time of add and lookup to the symbols phase
+
+public class InstrumentedSymbolTable implements ISymbolTable {
+    private final ISymbolTable symbols;
+    private final Measurement measurement;
+
+    public InstrumentedSymbolTable(ISymbolTable symbols, Measurement measurement) {
+        this.symbols = symbols;
+        this.measurement = measurement;
+    }
+
+    @Override
+    public int add(CharSequence name, IDataType type) {
+        int phase = this.measurement.enter(Measurement.SYMBOLS);
+
+        try {
+            int slot = this.symbols.add(name, type);
+
+            if (slot >= 0) {
+                this.measurement.countSymbol();
+            }
+
+            return slot;
+        } finally {
+            this.measurement.enter(phase);
+        }
+    }
+
+    @Override
+    public int lookup(CharSequence name) {
+        int phase = this.measurement.enter(Measurement.SYMBOLS);
+
+        try {
+            return this.symbols.lookup(name);
+        } finally {
+            this.measurement.enter(phase);
+        }
+    }
+
+    @Override
+    public String getName(int slot) {
+        return this.symbols.getName(slot);
+    }
+
+    @Override
+    public IDataType getType(int slot) {
+        return this.symbols.getType(slot);
+    }
+
+    @Override
+    public int getTypeTag(int slot) {
+        return this.symbols.getTypeTag(slot);
+    }
+
+    @Override
+    public int size() {
+        return this.symbols.size();
+    }
+
+    @Override
+    public void addDefinitions(int slot, int count) {
+        this.symbols.addDefinitions(slot, count);
+    }
+
+    @Override
+    public void addUses(int slot, int count) {
+        this.symbols.addUses(slot, count);
+    }
+
+    @Override
+    public int getDefinitions(int slot) {
+        return this.symbols.getDefinitions(slot);
+    }
+
+    @Override
+    public int getUses(int slot) {
+        return this.symbols.getUses(slot);
+    }
+
+    @Override
+    public int[] removeUnused() {
+        return this.symbols.removeUnused();
+    }
+
+    @Override
+    public String toString() {
+        return this.symbols.toString();
+    }
+}
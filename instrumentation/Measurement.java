@@ -0,0 +1,112 @@
+package instrumentation;
+
+/*
+ *  What one compile (or translation) measured, filled by the thread doing it and then recorded in the metrics
+ *
+ *  The time is charged to the current phase: enter(phase) closes the time of the phase it leaves and
+ *  returns it, so a decorator puts it back when the call is over. The time of each phase is therefore
+ *  exclusive, the parse time does not include the scanner, the symbol table or the emission it calls.
+ *
+ */
+
+public class Measurement {
+    public static final int SCAN     = 0;
+    public static final int PARSE    = 1;
+    public static final int SYMBOLS  = 2;
+    public static final int EMIT     = 3;
+    public static final int OPTIMIZE = 4;
+    public static final int OUTPUT   = 5;
+    public static final int CACHE    = 6;
+    // Time outside the phases above (setting up, waiting on the file system, ...)
+    public static final int OTHER    = 7;
+
+    static final String[] PHASES = { "scan", "parse", "symbols", "emit", "optimize", "output", "cache", "other" };
+
+    final String program;
+    final String output;
+    final long[] times;
+    final CompileEvent event;
+    long tokens;
+    long instructions;
+    long symbols;
+    int maxDepth;
+    boolean failed;
+
+    private int phase;
+    private long last;
+
+    Measurement(String program, String output) {
+        this.program = program;
+        this.output = output;
+        this.times = new long[PHASES.length];
+        this.event = new CompileEvent();
+        this.event.begin();
+        this.phase = OTHER;
+        this.last = System.nanoTime();
+    }
+
+    public static int phases() {
+        return PHASES.length;
+    }
+
+    public static String phase(int phase) {
+        return PHASES[phase];
+    }
+
+    // Charge the time since the last change to the current phase and make the given one current, returns the one it leaves
+    public int enter(int phase) {
+        long now = System.nanoTime();
+        int previous = this.phase;
+
+        this.times[previous] += now - this.last;
+        this.last = now;
+        this.phase = phase;
+
+        return previous;
+    }
+
+    public void countToken() {
+        this.tokens++;
+    }
+
+    public void countInstruction() {
+        this.instructions++;
+    }
+
+    public void countInstructions(long count) {
+        this.instructions += count;
+    }
+
+    public void countSymbol() {
+        this.symbols++;
+    }
+
+    // Deepest stack of pending operators and parentheses, where the recursive parsers recursed
+    public void setMaxDepth(int maxDepth) {
+        this.maxDepth = Math.max(this.maxDepth, maxDepth);
+    }
+
+    public void setFailed(boolean failed) {
+        this.failed = failed;
+    }
+
+    public long getTime(int phase) {
+        return this.times[phase];
+    }
+
+    public long getTokens() {
+        return this.tokens;
+    }
+
+    public long getInstructions() {
+        return this.instructions;
+    }
+
+    public long getSymbols() {
+        return this.symbols;
+    }
+
+    public int getMaxDepth() {
+        return this.maxDepth;
+    }
+}
@@ -0,0 +1,289 @@
+package lexer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import slu.compiler.*;
+
+/*
+ *  Table-driven scanner, a drop-in replacement for slu.compiler.Scanner
+ *
+ *  The lexicon is compiled into a DFA transition table (see ScannerTable) and the tokens are matched
+ *  with one table lookup per character over a char[] buffer. Keywords, operators and delimiters are
+ *  shared KindedToken instances, so the parsers get the kind without looking at the name.
+ *
+ *  Blanks, comments and strings are skipped and read exactly as slu.compiler.Scanner does, including
+ *  its block comments which end at the first '/'. Files are read into the buffer a block at a time
+ *  (see MappedSourceReader), so the heap does not grow with the size of the program. The file is closed
+ *  at the end of the input, or by close() when the parse stops before it.
+ *
+ */
+
+public class DfaScanner implements IScanner, Closeable {
+    private static final int BUFFER_SIZE = 8192;
+
+    private final ScannerTable table;
+
+    private Reader input;
+    private char[] buffer;
+    private int position;
+    private int limit;
+    // First character of the current token, the buffer is refilled from here
+    private int start;
+    private int line;
+
+    public DfaScanner(String program) throws Exception {
+        this.table = ScannerTable.load("lexicon.txt");
+        this.buffer = program.toCharArray();
+        this.limit = this.buffer.length;
+        this.line = 1;
+    }
+
+    public DfaScanner(String fileName, Charset charset) throws Exception {
+        if (!Files.exists(Paths.get(fileName))) {
+            throw new Exception("\nScanner: '" + fileName + "' not found");
+        }
+
+        this.table = ScannerTable.load("lexicon.txt");
+        // UTF-8 sources are mapped in memory rather than read through a stream
+        if (charset.equals(StandardCharsets.UTF_8) || charset.equals(StandardCharsets.US_ASCII)) {
+            this.input = new MappedSourceReader(fileName);
+        } else {
+            this.input = new InputStreamReader(Files.newInputStream(Paths.get(fileName)), charset);
+        }
+
+        this.buffer = new char[BUFFER_SIZE];
+        this.line = 1;
+    }
+
+    public DfaScanner(Reader input) throws Exception {
+        this.table = ScannerTable.load("lexicon.txt");
+        this.input = input;
+        this.buffer = new char[BUFFER_SIZE];
+        this.line = 1;
+    }
+
+    // SHA-256 of the lexicon the scanners use, read from its snapshot when lexicon.txt is not there
+    public static byte[] lexiconDigest() throws Exception {
+        return ScannerTable.load("lexicon.txt").getDigest();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (this.input != null) {
+            this.input.close();
+            this.input = null;
+        }
+    }
+
+    @Override
+    public int getLine() {
+        return this.line;
+    }
+
+    @Override
+    public String getLexeme(String tokenName) {
+        return this.table.getLexeme(tokenName);
+    }
+
+    @Override
+    public IToken getToken() {
+        try {
+            return nextToken();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private IToken nextToken() throws IOException {
+        int character;
+
+        // Blanks and comments
+
+        while (true) {
+            this.start = this.position;
+
+            character = read();
+
+            if (character <= 0) {
+                return this.table.end;
+            }
+
+            if (character == ' ' || character == '\t' || character == '\r') {
+                continue;
+            }
+
+            if (character == '\n') {
+                this.line++;
+                continue;
+            }
+
+            if (character == '/') {
+                int next = peek();
+
+                if (next == '/') {
+                    do {
+                        character = read();
+                    } while (character != '\n' && character >= 0);
+
+                    this.line++;
+                    continue;
+                }
+
+                if (next == '*') {
+                    do {
+                        character = read();
+
+                        if (character == '\n') {
+                            this.line++;
+                        }
+                    } while (character != '/' && character >= 0);
+
+                    continue;
+                }
+            }
+
+            break;
+        }
+
+        if (character == '"') {
+            return string();
+        }
+
+        // Identifiers, keywords, numbers and symbols: run the DFA as far as it goes
+
+        int[] transitions = this.table.transitions;
+        int state = transitions[ScannerTable.START * ScannerTable.COLUMNS + ScannerTable.column(character)];
+
+        if (state < 0) {
+            return this.table.unknown;
+        }
+
+        while (true) {
+            if (this.position == this.limit && !fill()) {
+                break;
+            }
+
+            int next = transitions[state * ScannerTable.COLUMNS + ScannerTable.column(this.buffer[this.position])];
+
+            if (next < 0) {
+                break;
+            }
+
+            state = next;
+            this.position++;
+        }
+
+        int length = this.position - this.start;
+
+        switch (state) {
+            case ScannerTable.IDENTIFIER:
+                IToken keyword = this.table.keyword(this.buffer, this.start, length);
+
+                return keyword != null ? keyword : new Identifier(new String(this.buffer, this.start, length));
+
+            case ScannerTable.INTEGER:
+                return new IntegerNumber(integer(length));
+
+            case ScannerTable.REAL:
+                return new FloatingPointNumber(Float.parseFloat(new String(this.buffer, this.start, length)));
+
+            default:
+                return this.table.symbols[state];
+        }
+    }
+
+    // The string ends at the closing quote or at the end of the line
+    private IToken string() throws IOException {
+        int character;
+
+        do {
+            character = read();
+
+            if (character == '\n') {
+                this.line++;
+                break;
+            }
+        } while (character != '"' && character >= 0);
+
+        int end = character == '"' || character == '\n' ? this.position - 1 : this.position;
+
+        return new StringLiteral(new String(this.buffer, this.start + 1, end - this.start - 1));
+    }
+
+    private int integer(int length) {
+        long value = 0;
+
+        for (int i = this.start; i < this.start + length; i++) {
+            char digit = this.buffer[i];
+
+            // Other digits and overflows are left to parseInt, for its value or its exception
+            if (digit > '9' || value > Integer.MAX_VALUE) {
+                return Integer.parseInt(new String(this.buffer, this.start, length));
+            }
+
+            value = value * 10 + (digit - '0');
+        }
+
+        if (value > Integer.MAX_VALUE) {
+            return Integer.parseInt(new String(this.buffer, this.start, length));
+        }
+
+        return (int) value;
+    }
+
+    private int read() throws IOException {
+        if (this.position == this.limit && !fill()) {
+            return -1;
+        }
+
+        return this.buffer[this.position++];
+    }
+
+    private int peek() throws IOException {
+        if (this.position == this.limit && !fill()) {
+            return -1;
+        }
+
+        return this.buffer[this.position];
+    }
+
+    // Read more characters, keeping the current token in the buffer
+    private boolean fill() throws IOException {
+        if (this.input == null) {
+            return false;
+        }
+
+        if (this.start > 0) {
+            System.arraycopy(this.buffer, this.start, this.buffer, 0, this.limit - this.start);
+
+            this.position = this.position - this.start;
+            this.limit = this.limit - this.start;
+            this.start = 0;
+        }
+
+        // Room for at least a surrogate pair
+        if (this.buffer.length - this.limit < 2) {
+            this.buffer = Arrays.copyOf(this.buffer, this.buffer.length * 2);
+        }
+
+        int count = this.input.read(this.buffer, this.limit, this.buffer.length - this.limit);
+
+        if (count < 0) {
+            this.input.close();
+            this.input = null;
+            return false;
+        }
+
+        this.limit = this.limit + count;
+
+        return true;
+    }
+}
@@ -0,0 +1,11 @@
+package lexer;
+
+import slu.compiler.IToken;
+
+// A token that knows its kind (see TokenKind), so the parsers do not have to look at its name
+
+public interface IKindedToken extends IToken {
+
+    public int getKind();
+
+}
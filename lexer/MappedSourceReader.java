@@ -0,0 +1,176 @@
+package lexer;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/*
+ *  Reader of a UTF-8 source file mapped in memory
+ *
+ *  The file is mapped with FileChannel.map in windows of WINDOW_SIZE bytes, so nothing of it is
+ *  copied to the heap except the characters the scanner asks for. ASCII bytes are copied straight
+ *  to chars, only the runs of bytes >= 0x80 go through the UTF-8 decoder. A character split by
+ *  the end of a window is decoded after mapping the next window from its first byte.
+ *
+ */
+
+public class MappedSourceReader extends Reader {
+    private static final long WINDOW_SIZE = 64L * 1024 * 1024;
+
+    private final FileChannel channel;
+    private final long size;
+    private final CharsetDecoder decoder;
+    // A surrogate pair that did not fit in the caller's array, and its low surrogate left for the next read
+    private final CharBuffer pair = CharBuffer.allocate(2);
+    private char pending;
+
+    private MappedByteBuffer window;
+    // Offset of the window in the file
+    private long offset;
+
+    public MappedSourceReader(String fileName) throws IOException {
+        this.channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ);
+        this.size = this.channel.size();
+        this.decoder = StandardCharsets.UTF_8.newDecoder()
+                           .onMalformedInput(CodingErrorAction.REPLACE)
+                           .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+        try {
+            map(0);
+        } catch (IOException e) {
+            this.channel.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public int read(char[] chars, int offset, int length) throws IOException {
+        int count = 0;
+
+        if (this.pending != 0 && length > 0) {
+            chars[offset] = this.pending;
+            this.pending = 0;
+            count = 1;
+        }
+
+        if (this.window == null) {
+            return count == 0 ? -1 : count;
+        }
+
+        while (count < length) {
+            MappedByteBuffer window = this.window;
+            int position = window.position();
+            int limit = window.limit();
+
+            // ASCII
+
+            while (count < length && position < limit) {
+                byte b = window.get(position);
+
+                if (b < 0) {
+                    break;
+                }
+
+                chars[offset + count++] = (char) b;
+                position++;
+            }
+
+            window.position(position);
+
+            if (count == length) {
+                break;
+            }
+
+            if (position == limit) {
+                if (!next()) {
+                    break;
+                }
+
+                continue;
+            }
+
+            // Other characters, up to the next ASCII byte
+
+            int end = position;
+
+            while (end < limit && window.get(end) < 0) {
+                end++;
+            }
+
+            // The run is complete unless it goes on in the next window
+            boolean complete = end < limit || this.offset + limit == this.size;
+            ByteBuffer run = window.duplicate();
+            CharBuffer output = CharBuffer.wrap(chars, offset + count, length - count);
+
+            run.limit(end);
+
+            this.decoder.reset();
+
+            CoderResult result = this.decoder.decode(run, output, complete);
+
+            window.position(run.position());
+            count = output.position() - offset;
+
+            if (result.isOverflow()) {
+                if (count == 0) {
+                    this.pair.clear();
+                    this.decoder.decode(run, this.pair, complete);
+                    window.position(run.position());
+
+                    chars[offset] = this.pair.get(0);
+                    this.pending = this.pair.get(1);
+                    count = 1;
+                }
+
+                break;
+            }
+
+            // A character split by the end of the window
+            if (run.hasRemaining() && !complete) {
+                if (!next()) {
+                    break;
+                }
+            }
+        }
+
+        if (count == 0 && this.window == null) {
+            return -1;
+        }
+
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.window = null;
+        this.channel.close();
+    }
+
+    // Map the rest of the file from the current position, returns false at the end of the file
+    private boolean next() throws IOException {
+        long position = this.offset + this.window.position();
+
+        if (position >= this.size) {
+            this.window = null;
+            return false;
+        }
+
+        map(position);
+
+        return true;
+    }
+
+    private void map(long position) throws IOException {
+        this.offset = position;
+        this.window = this.channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(WINDOW_SIZE, this.size - position));
+    }
+}
@@ -0,0 +1,537 @@
+package lexer;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import slu.compiler.*;
+
+/*
+ *  Lexicon compiled into the tables of the DfaScanner
+ *
+ *  The transition table has one row per state and one column per ASCII character, plus three columns
+ *  for the classes of the other characters (letter, digit, other). The states are
+ *
+ *     0     start
+ *     1     identifier          letter (letter | digit | _)*
+ *     2     integer             digit+
+ *     3     floating point      digit+ . digit*
+ *     4...  symbols             one state per prefix of an operator or delimiter of the lexicon
+ *
+ *  A symbol is extended by one more character only if the longer lexeme is also in the lexicon, which
+ *  is how slu.compiler.Scanner matches symbols. Keywords are recognized after an identifier has been
+ *  scanned, with a perfect hash of their characters.
+ *
+ *  The tables are compiled once per process and lexicon file, and saved in a binary snapshot that the
+ *  next processes load instead of compiling the lexicon again (see load).
+ *
+ */
+
+final class ScannerTable {
+    static final int LETTER  = 128;
+    static final int DIGIT   = 129;
+    static final int OTHER   = 130;
+    static final int COLUMNS = 131;
+
+    static final int START      = 0;
+    static final int IDENTIFIER = 1;
+    static final int INTEGER    = 2;
+    static final int REAL       = 3;
+
+    // Transitions, state * COLUMNS + column -> next state (-1 if there is none)
+    final int[] transitions;
+    // Token of each symbol state (the unknown token if the lexeme is not in the lexicon)
+    final IToken[] symbols;
+    final IToken unknown;
+    final IToken end;
+
+    private final char[][] keywords;
+    private final IToken[] keywordTokens;
+    private final int seed;
+    private final int mask;
+    // Lexeme of each token name, for getLexeme()
+    private final Map<String, String> lexemes;
+    // Last modification time of the lexicon file, and the SHA-256 of its contents
+    private final long modified;
+    private final byte[] digest;
+
+    private static final Map<Path, ScannerTable> TABLES = new ConcurrentHashMap<Path, ScannerTable>();
+
+    private ScannerTable(int[] transitions, IToken[] symbols, IToken unknown, char[][] keywords, IToken[] keywordTokens, int seed, Map<String, String> lexemes, long modified, byte[] digest) {
+        this.transitions = transitions;
+        this.symbols = symbols;
+        this.unknown = unknown;
+        this.end = new KindedToken("null", TokenKind.NULL);
+        this.keywords = keywords;
+        this.keywordTokens = keywordTokens;
+        this.seed = seed;
+        this.mask = keywords.length - 1;
+        this.lexemes = lexemes;
+        this.modified = modified;
+        this.digest = digest;
+    }
+
+    // The tables are immutable, so every scanner of the process shares the ones of a lexicon file
+    // (loaded again if the file changes). They are read from the snapshot of the lexicon when it is
+    // up to date, otherwise compiled from the file and saved in a new snapshot.
+    static ScannerTable load(String fileName) throws Exception {
+        Path path = Paths.get(fileName).toAbsolutePath();
+        long modified = lastModified(path);
+        ScannerTable table = TABLES.get(path);
+
+        if (table != null && table.modified == modified) {
+            return table;
+        }
+
+        Path snapshot = snapshot(path);
+
+        table = readSnapshot(snapshot, modified);
+
+        if (table == null) {
+            if (modified < 0) {
+                throw new Exception("\nScanner: '" + fileName + "' not found");
+            }
+
+            table = compile(fileName);
+
+            writeSnapshot(snapshot, table);
+        }
+
+        TABLES.put(path, table);
+
+        return table;
+    }
+
+    // Read the lexicon file (same format as slu.compiler.Lexicon) and build the tables
+    static ScannerTable compile(String fileName) throws Exception {
+        if (!Files.exists(Paths.get(fileName))) {
+            throw new Exception("\nScanner: '" + fileName + "' not found");
+        }
+
+        long modified = Files.getLastModifiedTime(Paths.get(fileName)).toMillis();
+        byte[] source = Files.readAllBytes(Paths.get(fileName));
+        Map<String, String> lexemes = new HashMap<String, String>();
+        Map<String, String> owners = new HashMap<String, String>();
+        List<String> names = new ArrayList<String>();
+        List<String> words = new ArrayList<String>();
+
+        try (BufferedReader input = new BufferedReader(new StringReader(new String(source, StandardCharsets.UTF_8)))) {
+            String line;
+
+            while ((line = input.readLine()) != null) {
+                if (line.length() == 0 || line.charAt(0) == '/' || line.indexOf('\t') < 0) {
+                    continue;
+                }
+
+                String name = line.substring(0, line.indexOf('\t')).trim();
+                String lexeme = line.substring(line.lastIndexOf('\t') + 1).trim();
+
+                // The kinds are a copy of the names in TokenKind, a name it lacks would scan as unknown
+                if (TokenKind.valueOf(name) == TokenKind.UNKNOWN) {
+                    throw new Exception("\nScanner: '" + name + "' in '" + fileName + "' is not a token of the language");
+                }
+
+                // One lexeme, one token: two keywords with the same lexeme share a bucket for every seed, the search
+                // for the perfect hash would never end
+                String owner = lexeme.isEmpty() ? null : owners.putIfAbsent(lexeme, name);
+
+                if (owner != null) {
+                    throw new Exception("\nScanner: '" + lexeme + "' is the lexeme of both '" + owner + "' and '" + name + "' in '" + fileName + "'");
+                }
+
+                if (!lexeme.isEmpty()) {
+                    lexemes.put(name, lexeme);
+                    names.add(name);
+                    words.add(lexeme);
+                }
+            }
+        }
+
+        return build(names, words, lexemes, modified, MessageDigest.getInstance("SHA-256").digest(source));
+    }
+
+    private static ScannerTable build(List<String> names, List<String> words, Map<String, String> lexemes, long modified, byte[] digest) {
+        // The symbol states form a trie of the lexemes of the operators and delimiters
+        List<String> prefixes = new ArrayList<String>();
+        Map<String, Integer> states = new HashMap<String, Integer>();
+        Map<String, String> tokens = new HashMap<String, String>();
+        List<String> keywordNames = new ArrayList<String>();
+        List<String> keywordLexemes = new ArrayList<String>();
+
+        for (int i = 0; i < words.size(); i++) {
+            String lexeme = words.get(i);
+
+            if (Character.isLetter(lexeme.charAt(0))) {
+                keywordNames.add(names.get(i));
+                keywordLexemes.add(lexeme);
+            } else if (!Character.isDigit(lexeme.charAt(0))) {
+                tokens.put(lexeme, names.get(i));
+
+                for (int length = 1; length <= lexeme.length(); length++) {
+                    String prefix = lexeme.substring(0, length);
+
+                    if (!states.containsKey(prefix)) {
+                        states.put(prefix, REAL + 1 + prefixes.size());
+                        prefixes.add(prefix);
+                    }
+                }
+            }
+        }
+
+        int count = REAL + 1 + prefixes.size();
+        int[] transitions = new int[count * COLUMNS];
+        IToken[] symbols = new IToken[count];
+
+        Arrays.fill(transitions, -1);
+
+        for (int c = 0; c < 128; c++) {
+            if (Character.isLetter((char) c)) {
+                transitions[START * COLUMNS + c] = IDENTIFIER;
+                transitions[IDENTIFIER * COLUMNS + c] = IDENTIFIER;
+            } else if (Character.isDigit((char) c)) {
+                transitions[START * COLUMNS + c] = INTEGER;
+                transitions[IDENTIFIER * COLUMNS + c] = IDENTIFIER;
+                transitions[INTEGER * COLUMNS + c] = INTEGER;
+                transitions[REAL * COLUMNS + c] = REAL;
+            }
+        }
+
+        transitions[START * COLUMNS + LETTER] = IDENTIFIER;
+        transitions[START * COLUMNS + DIGIT] = INTEGER;
+        transitions[IDENTIFIER * COLUMNS + LETTER] = IDENTIFIER;
+        transitions[IDENTIFIER * COLUMNS + DIGIT] = IDENTIFIER;
+        transitions[IDENTIFIER * COLUMNS + '_'] = IDENTIFIER;
+        transitions[INTEGER * COLUMNS + DIGIT] = INTEGER;
+        transitions[INTEGER * COLUMNS + '.'] = REAL;
+        transitions[REAL * COLUMNS + DIGIT] = REAL;
+
+        KindedToken unknown = new KindedToken(null, TokenKind.UNKNOWN);
+
+        for (String prefix : prefixes) {
+            int state = states.get(prefix);
+            String name = tokens.get(prefix);
+
+            symbols[state] = name == null ? unknown : new KindedToken(name, TokenKind.valueOf(name));
+
+            // The first character always starts a symbol, a longer lexeme must be in the lexicon
+            if (prefix.length() == 1) {
+                transitions[START * COLUMNS + column(prefix.charAt(0))] = state;
+            } else if (name != null) {
+                int previous = states.get(prefix.substring(0, prefix.length() - 1));
+
+                transitions[previous * COLUMNS + column(prefix.charAt(prefix.length() - 1))] = state;
+            }
+        }
+
+        // Perfect hash of the keywords: look for a seed that puts every keyword in its own bucket
+        int size = Integer.highestOneBit(Math.max(1, keywordLexemes.size()) * 2 - 1) * 2;
+        int seed = 1;
+
+        while (!isPerfect(keywordLexemes, seed, size - 1)) {
+            seed++;
+
+            if (seed % 4096 == 0) {
+                size = size * 2;
+            }
+        }
+
+        char[][] keywords = new char[size][];
+        IToken[] keywordTokens = new IToken[size];
+
+        for (int i = 0; i < keywordLexemes.size(); i++) {
+            char[] lexeme = keywordLexemes.get(i).toCharArray();
+            int bucket = hash(lexeme, 0, lexeme.length, seed) & (size - 1);
+
+            keywords[bucket] = lexeme;
+            keywordTokens[bucket] = new KindedToken(keywordNames.get(i), TokenKind.valueOf(keywordNames.get(i)));
+        }
+
+        return new ScannerTable(transitions, symbols, unknown, keywords, keywordTokens, seed, lexemes, modified, digest);
+    }
+
+    // SHA-256 of the lexicon the tables were compiled from, whether they were compiled or read from a snapshot
+    byte[] getDigest() {
+        return this.digest.clone();
+    }
+
+    /*
+     *  Snapshot of the tables, 'lexicon.bin' next to 'lexicon.txt'
+     *
+     *     magic, version, last modification time and SHA-256 (32 bytes) of the lexicon file
+     *     transitions             number of states, states * COLUMNS ints
+     *     symbols                 per state: 0 none, 1 unknown, 2 token name
+     *     keywords                size, seed, per bucket: 0 empty, 1 lexeme and token name
+     *     lexemes                 count, token name and lexeme pairs
+     *
+     *  A snapshot is used only if the lexicon file has not been modified since (or is not there at all).
+     *
+     */
+
+    private static final int MAGIC = 0x534C554C;
+    private static final int SNAPSHOT_VERSION = 2;
+
+    private static Path snapshot(Path path) {
+        String name = path.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+
+        return path.resolveSibling((dot > 0 ? name.substring(0, dot) : name) + ".bin");
+    }
+
+    // Returns -1 if the file does not exist
+    private static long lastModified(Path path) throws IOException {
+        try {
+            return Files.getLastModifiedTime(path).toMillis();
+        } catch (NoSuchFileException e) {
+            return -1;
+        }
+    }
+
+    // Returns null if there is no snapshot or it is out of date, compiling the lexicon again is always possible
+    private static ScannerTable readSnapshot(Path snapshot, long modified) {
+        ByteBuffer input;
+
+        try {
+            input = ByteBuffer.wrap(Files.readAllBytes(snapshot));
+        } catch (IOException e) {
+            return null;
+        }
+
+        try {
+            if (input.getInt() != MAGIC || input.getInt() != SNAPSHOT_VERSION || input.getInt() != COLUMNS) {
+                return null;
+            }
+
+            long source = input.getLong();
+
+            if (modified >= 0 && source != modified) {
+                return null;
+            }
+
+            byte[] digest = new byte[32];
+
+            input.get(digest);
+
+            int count = input.getInt();
+            int[] transitions = new int[count * COLUMNS];
+
+            input.asIntBuffer().get(transitions);
+            input.position(input.position() + transitions.length * 4);
+
+            KindedToken unknown = new KindedToken(null, TokenKind.UNKNOWN);
+            IToken[] symbols = new IToken[count];
+
+            for (int state = 0; state < count; state++) {
+                byte tag = input.get();
+
+                if (tag == 1) {
+                    symbols[state] = unknown;
+                } else if (tag == 2) {
+                    symbols[state] = token(getString(input));
+                }
+            }
+
+            int size = input.getInt();
+            int seed = input.getInt();
+            char[][] keywords = new char[size][];
+            IToken[] keywordTokens = new IToken[size];
+
+            for (int bucket = 0; bucket < size; bucket++) {
+                if (input.get() == 1) {
+                    keywords[bucket] = getString(input).toCharArray();
+                    keywordTokens[bucket] = token(getString(input));
+                }
+            }
+
+            Map<String, String> lexemes = new HashMap<String, String>();
+
+            for (int i = input.getInt(); i > 0; i--) {
+                lexemes.put(getString(input), getString(input));
+            }
+
+            return new ScannerTable(transitions, symbols, unknown, keywords, keywordTokens, seed, lexemes, modified, digest);
+
+        } catch (RuntimeException e) {
+            // Truncated or written by another version of the lexicon: compile it again
+            return null;
+        }
+    }
+
+    // A name TokenKind no longer knows makes the snapshot out of date
+    private static IToken token(String name) {
+        int kind = TokenKind.valueOf(name);
+
+        if (kind == TokenKind.UNKNOWN) {
+            throw new IllegalStateException(name);
+        }
+
+        return new KindedToken(name, kind);
+    }
+
+    // Saving the snapshot is only an optimization, a directory that cannot be written is not an error
+    private static void writeSnapshot(Path snapshot, ScannerTable table) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bytes);
+
+        try {
+            output.writeInt(MAGIC);
+            output.writeInt(SNAPSHOT_VERSION);
+            output.writeInt(COLUMNS);
+            output.writeLong(table.modified);
+            output.write(table.digest);
+            output.writeInt(table.symbols.length);
+
+            for (int transition : table.transitions) {
+                output.writeInt(transition);
+            }
+
+            for (IToken symbol : table.symbols) {
+                if (symbol == null) {
+                    output.writeByte(0);
+                } else if (symbol == table.unknown) {
+                    output.writeByte(1);
+                } else {
+                    output.writeByte(2);
+                    putString(output, symbol.getName());
+                }
+            }
+
+            output.writeInt(table.keywords.length);
+            output.writeInt(table.seed);
+
+            for (int bucket = 0; bucket < table.keywords.length; bucket++) {
+                if (table.keywords[bucket] == null) {
+                    output.writeByte(0);
+                } else {
+                    output.writeByte(1);
+                    putString(output, new String(table.keywords[bucket]));
+                    putString(output, table.keywordTokens[bucket].getName());
+                }
+            }
+
+            output.writeInt(table.lexemes.size());
+
+            for (Map.Entry<String, String> lexeme : table.lexemes.entrySet()) {
+                putString(output, lexeme.getKey());
+                putString(output, lexeme.getValue());
+            }
+
+            // Written aside and renamed, so another process never reads half a snapshot
+            Path temporary = Files.createTempFile(snapshot.toAbsolutePath().getParent(), "lexicon", ".tmp");
+
+            try {
+                Files.write(temporary, bytes.toByteArray());
+                Files.move(temporary, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temporary);
+            }
+
+        } catch (IOException e) {
+            // Compiled again next time
+        }
+    }
+
+    private static void putString(DataOutputStream output, String string) throws IOException {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+
+        output.writeShort(bytes.length);
+        output.write(bytes);
+    }
+
+    private static String getString(ByteBuffer input) {
+        byte[] bytes = new byte[input.getShort() & 0xFFFF];
+
+        input.get(bytes);
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Token of the keyword in chars[offset, offset + length), or null if it is not a keyword
+    IToken keyword(char[] chars, int offset, int length) {
+        int bucket = hash(chars, offset, length, this.seed) & this.mask;
+        char[] keyword = this.keywords[bucket];
+
+        if (keyword == null || keyword.length != length) {
+            return null;
+        }
+
+        for (int i = 0; i < length; i++) {
+            if (keyword[i] != chars[offset + i]) {
+                return null;
+            }
+        }
+
+        return this.keywordTokens[bucket];
+    }
+
+    String getLexeme(String tokenName) {
+        String lexeme = this.lexemes.get(tokenName);
+
+        return lexeme == null ? "null" : lexeme;
+    }
+
+    static int column(int c) {
+        if (c < 128) {
+            return c;
+        }
+
+        return Character.isLetter(c) ? LETTER : Character.isDigit(c) ? DIGIT : OTHER;
+    }
+
+    private static boolean isPerfect(List<String> lexemes, int seed, int mask) {
+        boolean[] used = new boolean[mask + 1];
+
+        for (String lexeme : lexemes) {
+            int bucket = hash(lexeme.toCharArray(), 0, lexeme.length(), seed) & mask;
+
+            if (used[bucket]) {
+                return false;
+            }
+
+            used[bucket] = true;
+        }
+
+        return true;
+    }
+
+    private static int hash(char[] chars, int offset, int length, int seed) {
+        int hash = 0x811C9DC5;
+
+        for (int i = offset; i < offset + length; i++) {
+            hash = (hash ^ chars[i]) * 0x01000193;
+        }
+
+        hash = (hash ^ (hash >>> 16)) * (seed * 2 + 1);
+
+        return hash ^ (hash >>> 13);
+    }
+
+    // Keywords, operators and delimiters are immutable, so every scanner shares one token per kind
+    static final class KindedToken extends Token implements IKindedToken {
+        private final int kind;
+
+        KindedToken(String name, int kind) {
+            super(name);
+            this.kind = kind;
+        }
+
+        @Override
+        public int getKind() {
+            return this.kind;
+        }
+    }
+}
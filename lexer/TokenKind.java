@@ -0,0 +1,129 @@
+package lexer;
+
+import java.util.HashMap;
+import java.util.Map;
+import slu.compiler.*;
+
+/*
+ *  Integer kinds of the tokens
+ *
+ *  The kinds of the tokens defined in 'lexicon.txt' are numbered in the order of the file, followed by
+ *  the tokens built by the scanner itself (id, string and null for the end of the input). Keywords and
+ *  literals with the same name (int, float) share one kind, exactly like their names.
+ *
+ *  There are less than 64 kinds, so a set of kinds (for instance a FIRST set) fits in a long.
+ *
+ */
+
+public final class TokenKind {
+    public static final int GREATER_THAN          = 0;
+    public static final int GREATER_OR_EQUAL      = 1;
+    public static final int LESS_THAN             = 2;
+    public static final int LESS_OR_EQUAL         = 3;
+    public static final int EQUAL                 = 4;
+    public static final int NOT_EQUAL             = 5;
+    public static final int ASSIGNMENT            = 6;
+    public static final int ADD                   = 7;
+    public static final int SUBTRACT              = 8;
+    public static final int MULTIPLY              = 9;
+    public static final int DIVIDE                = 10;
+    public static final int MODULUS               = 11;
+    public static final int AND                   = 12;
+    public static final int OR                    = 13;
+    public static final int NOT                   = 14;
+    public static final int DOT                   = 15;
+    public static final int COMMA                 = 16;
+    public static final int SEMICOLON             = 17;
+    public static final int OPEN_PARENTHESIS      = 18;
+    public static final int CLOSED_PARENTHESIS    = 19;
+    public static final int OPEN_SQUARE_BRACKET   = 20;
+    public static final int CLOSED_SQUARE_BRACKET = 21;
+    public static final int OPEN_CURLY_BRACKET    = 22;
+    public static final int CLOSED_CURLY_BRACKET  = 23;
+    public static final int BOOLEAN               = 24;
+    public static final int DO                    = 25;
+    public static final int ELSE                  = 26;
+    public static final int FALSE                 = 27;
+    public static final int FOR                   = 28;
+    public static final int FLOAT                 = 29;
+    public static final int IF                    = 30;
+    public static final int INT                   = 31;
+    public static final int MAIN                  = 32;
+    public static final int PRINT                 = 33;
+    public static final int PRINTLN               = 34;
+    public static final int READ                  = 35;
+    public static final int TRUE                  = 36;
+    public static final int VOID                  = 37;
+    public static final int WHILE                 = 38;
+    public static final int ID                    = 39;
+    public static final int STRING                = 40;
+    public static final int NULL                  = 41;
+    public static final int UNKNOWN               = 42;
+
+    private static final String[] NAMES = {
+        "greater-than", "greater-or-equal", "less-than", "less-or-equal", "equal", "not-equal", "assignment",
+        "add", "subtract", "multiply", "divide", "modulus", "and", "or", "not", "dot", "comma", "semicolon",
+        "open-parenthesis", "closed-parenthesis", "open-square-bracket", "closed-square-bracket",
+        "open-curly-bracket", "closed-curly-bracket", "boolean", "do", "else", "false", "for", "float", "if",
+        "int", "main", "print", "println", "read", "true", "void", "while", "id", "string", "null"
+    };
+
+    private static final Map<String, Integer> KINDS = new HashMap<String, Integer>();
+
+    static {
+        for (int kind = 0; kind < NAMES.length; kind++) {
+            KINDS.put(NAMES[kind], kind);
+        }
+    }
+
+    private TokenKind() {
+    }
+
+    public static int count() {
+        return NAMES.length + 1;
+    }
+
+    public static int of(IToken token) {
+        if (token instanceof IKindedToken) {
+            return ((IKindedToken) token).getKind();
+        }
+
+        // Tokens of other scanners: the common literals first, the rest by name
+        if (token instanceof Identifier) {
+            return ID;
+        }
+
+        if (token instanceof IntegerNumber) {
+            return INT;
+        }
+
+        Integer kind = KINDS.get(token.getName());
+
+        return kind == null ? UNKNOWN : kind;
+    }
+
+    // Returns UNKNOWN if no token has this name
+    public static int valueOf(String name) {
+        Integer kind = KINDS.get(name);
+
+        return kind == null ? UNKNOWN : kind;
+    }
+
+    public static String name(int kind) {
+        return kind < NAMES.length ? NAMES[kind] : null;
+    }
+
+    public static long mask(int... kinds) {
+        long mask = 0;
+
+        for (int kind : kinds) {
+            mask = mask | (1L << kind);
+        }
+
+        return mask;
+    }
+
+    public static boolean in(int kind, long mask) {
+        return (mask & (1L << kind)) != 0;
+    }
+}
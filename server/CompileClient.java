@@ -0,0 +1,89 @@
+package server;
+
+import java.io.IOException;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+/*
+ *  Thin client of the compile server, prints what the test programs would print
+ *
+ *     java server.CompileClient [-s socket] command arguments...
+ *
+ *  for example 'compile -O program.txt program.sm' or 'evaluate "(1 + 2) * 3"' (see CompileService).
+ *  The relative paths are resolved in the directory of the client. Without a server on the socket the
+ *  request runs in the client itself, so the client always works, just without the warm compiler.
+ *
+ */
+
+public class CompileClient {
+    private final Path socket;
+
+    public CompileClient(Path socket) {
+        this.socket = socket;
+    }
+
+    public Response execute(Request request) throws IOException {
+        if (Files.exists(this.socket)) {
+            SocketChannel channel;
+
+            try {
+                channel = SocketChannel.open(UnixDomainSocketAddress.of(this.socket));
+            } catch (IOException e) {
+                return new CompileService().execute(request);
+            }
+
+            try (channel) {
+                Protocol.writeRequest(channel, request);
+
+                Response response = Protocol.readResponse(channel);
+
+                if (response == null) {
+                    throw new IOException("Compile server: connection closed before the response");
+                }
+
+                return response;
+            }
+        }
+
+        return new CompileService().execute(request);
+    }
+
+    public static void main(String[] args) {
+        String socket = CompileServer.SOCKET;
+        int first = 0;
+
+        if (args.length >= 2 && args[0].equals("-s")) {
+            socket = args[1];
+            first = 2;
+        }
+
+        try {
+
+            if (first >= args.length) {
+                throw new Exception("\nusage: CompileClient [-s socket] command arguments...");
+            }
+
+            String[] arguments = Arrays.copyOfRange(args, first + 1, args.length + 2);
+
+            arguments[arguments.length - 2] = "-d";
+            arguments[arguments.length - 1] = Paths.get("").toAbsolutePath().toString();
+
+            Response response = new CompileClient(Paths.get(socket)).execute(new Request(1, args[first], arguments));
+
+            if (!response.isSucceeded()) {
+                System.out.println(response.getDiagnostics());
+                System.exit(1);
+            }
+
+            System.out.print(response.getOutput());
+
+        } catch (Exception e) {
+            System.out.println(e.getMessage());
+            System.exit(1);
+        }
+    }
+}
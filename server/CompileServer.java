@@ -0,0 +1,234 @@
+package server;
+
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.RejectedExecutionException;
+import lexer.DfaScanner;
+
+/*
+ *  Long-lived compile server, the compiler and the translator stay loaded and warm between compiles
+ *
+ *     java server.CompileServer [-j threads] [-s socket]      serve on a Unix-domain socket (compiler.sock)
+ *     java server.CompileServer [-j threads] --stdio          serve on the standard input and output
+ *
+ *  The requests (see Protocol) of all the connections run on a pool of threads workers, so a slow
+ *  compile does not hold up the others and one connection can send many requests at once. The lexicon
+ *  is the lexicon.txt of the directory the server runs in. The 'stop' command shuts the server down:
+ *  it closes every connection, so no client keeps the server alive after its socket is gone.
+ *
+ */
+
+public class CompileServer {
+    public static final String SOCKET = "compiler.sock";
+
+    private final ICompileService service;
+    private final ExecutorService workers;
+    // Open connections, closed by stop()
+    private final Set<SocketChannel> channels;
+
+    private volatile ServerSocketChannel server;
+    private volatile boolean stopped;
+
+    public CompileServer(ICompileService service, int threads) {
+        this.service = service;
+        this.workers = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "compile-worker");
+
+            thread.setDaemon(true);
+
+            return thread;
+        });
+        this.channels = ConcurrentHashMap.newKeySet();
+    }
+
+    public void serve(Path socket) throws Exception {
+        if (Files.exists(socket)) {
+            boolean running;
+
+            try {
+                SocketChannel.open(UnixDomainSocketAddress.of(socket)).close();
+                running = true;
+            } catch (IOException e) {
+                running = false;
+            }
+
+            if (running) {
+                throw new Exception("\nCompile server: a server is already running on '" + socket + "'");
+            }
+
+            // Left behind by a server that did not shut down
+            Files.delete(socket);
+        }
+
+        ExecutorService connections = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "compile-connection");
+
+            thread.setDaemon(true);
+
+            return thread;
+        });
+
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(UnixDomainSocketAddress.of(socket));
+
+            this.server = server;
+
+            System.err.println("Compile server listening on '" + socket + "'");
+
+            while (!this.stopped) {
+                SocketChannel channel;
+
+                try {
+                    channel = server.accept();
+                } catch (ClosedChannelException e) {
+                    break;
+                }
+
+                this.channels.add(channel);
+
+                // A connection accepted while stop() closed the others is closed here
+                if (this.stopped) {
+                    channel.close();
+                    break;
+                }
+
+                connections.execute(() -> {
+                    try (SocketChannel connection = channel) {
+                        serve(connection, connection);
+                    } catch (IOException e) {
+                        // stop() closes the connections under their reads
+                        if (!this.stopped) {
+                            System.err.println("Compile server: " + e.getMessage());
+                        }
+                    } finally {
+                        this.channels.remove(channel);
+                    }
+                });
+            }
+        } finally {
+            connections.shutdown();
+            this.workers.shutdown();
+
+            Files.deleteIfExists(socket);
+        }
+    }
+
+    public void serveStandardStreams() throws IOException {
+        try {
+            serve(new FileInputStream(FileDescriptor.in).getChannel(), new FileOutputStream(FileDescriptor.out).getChannel());
+        } finally {
+            this.workers.shutdown();
+        }
+    }
+
+    // Requests are read as they come and answered as they finish, until the end of the input or a stop
+    private void serve(ReadableByteChannel input, WritableByteChannel output) throws IOException {
+        Phaser pending = new Phaser(1);
+
+        try {
+            Request request;
+
+            while (!this.stopped && (request = Protocol.readRequest(input)) != null) {
+                if (request.getCommand().equals("stop")) {
+                    pending.arriveAndAwaitAdvance();
+
+                    respond(output, new Response(request.getId(), true, "Compile server stopped\n", ""));
+                    stop();
+                    break;
+                }
+
+                Request task = request;
+
+                pending.register();
+
+                try {
+                    this.workers.execute(() -> {
+                        try {
+                            respond(output, this.service.execute(task));
+                        } catch (IOException e) {
+                            System.err.println("Compile server: " + e.getMessage());
+                        } finally {
+                            pending.arriveAndDeregister();
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    // The server stopped between the read and the execute
+                    pending.arriveAndDeregister();
+
+                    respond(output, new Response(task.getId(), false, "", "\nCompile server: the server is stopping"));
+                    break;
+                }
+            }
+        } finally {
+            pending.arriveAndAwaitAdvance();
+        }
+    }
+
+    private static void respond(WritableByteChannel output, Response response) throws IOException {
+        synchronized (output) {
+            Protocol.writeResponse(output, response);
+        }
+    }
+
+    private void stop() throws IOException {
+        this.stopped = true;
+
+        if (this.server != null) {
+            this.server.close();
+        }
+
+        for (SocketChannel channel : this.channels) {
+            channel.close();
+        }
+    }
+
+    public static void main(String[] args) {
+        int threads = Runtime.getRuntime().availableProcessors();
+        String socket = SOCKET;
+        boolean stdio = false;
+
+        try {
+
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "-j":      threads = Integer.parseInt(args[++i]); break;
+                    case "-s":      socket = args[++i]; break;
+                    case "--stdio": stdio = true; break;
+                    default:        throw new Exception("\nusage: CompileServer [-j threads] [-s socket | --stdio]");
+                }
+            }
+
+            // Load the lexicon now rather than in the first request
+            new DfaScanner("");
+
+            CompileServer server = new CompileServer(new CompileService(), Math.max(1, threads));
+
+            if (stdio) {
+                server.serveStandardStreams();
+            } else {
+                server.serve(Paths.get(socket));
+            }
+
+        } catch (Exception e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package server;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import lexer.DfaScanner;
+import stackmachine.compiler.sprint2.IIntermediateCode;
+import stackmachine.compiler.sprint2.IntermediateCode;
+import stackmachine.compiler.sprint2.Parser;
+import stackmachine.compiler.sprint2.OptimizerPipeline;
+import stackmachine.compiler.sprint2.StackMachineCompiler;
+import stackmachine.vm.IStackMachine;
+import stackmachine.vm.StackMachine;
+import translator2.IPostfixTranslator;
+import translator2.PostfixTranslator;
+
+/*
+ *  The commands of the compile server, executed in the server (or in the client when no server runs)
+ *
+ *     compile program output       compile to stack machine code, as stackmachine.compiler.sprint2.TestProgram
+ *     bytecode program output      compile to bytecode
+ *     code program                 the stack machine code of the program
+ *     run program                  compile and run the program, the memory of the machine as stackmachine.vm.TestProgram
+ *     translate expression         postfix translation and value, as translator2.TestProgram
+ *     evaluate expression          value of the expression
+ *
+ *  Options: -O runs the optimizers (see OptimizerPipeline), -n writes the name table next to the code, -d directory
+ *  resolves the relative paths (the working directory of the client). Every request gets its own
+ *  compiler and translator, so any number of them can run at once.
+ *
+ */
+
+public class CompileService implements ICompileService {
+
+    @Override
+    public Response execute(Request request) {
+        try {
+
+            return new Response(request.getId(), true, execute(request.getCommand(), request.getArguments()), "");
+
+        } catch (Exception | StackOverflowError e) {
+            String message = e instanceof StackOverflowError ? "\nThe program is too deeply nested" : e.getMessage();
+
+            return new Response(request.getId(), false, "", message == null ? e.toString() : message);
+        }
+    }
+
+    private String execute(String command, String[] arguments) throws Exception {
+        List<String> operands = new ArrayList<String>();
+        String directory = null;
+        boolean optimized = false;
+        boolean nameTable = false;
+
+        for (int i = 0; i < arguments.length; i++) {
+            switch (arguments[i]) {
+                case "-O": optimized = true; break;
+                case "-n": nameTable = true; break;
+                case "-d": directory = arguments[++i]; break;
+                default:   operands.add(arguments[i]);
+            }
+        }
+
+        StackMachineCompiler compiler = new StackMachineCompiler();
+
+        if (optimized) {
+            compiler.setOptimizer(OptimizerPipeline.standard());
+        }
+
+        compiler.setNameTable(nameTable);
+
+        switch (command) {
+            case "compile":
+                compiler.compile(path(directory, operand(operands, 0)), path(directory, operand(operands, 1)));
+
+                return "'" + operands.get(0) + "' compiled succesfully!\n";
+
+            case "bytecode":
+                compiler.compileToBytecode(path(directory, operand(operands, 0)), path(directory, operand(operands, 1)));
+
+                return "'" + operands.get(0) + "' compiled succesfully!\n";
+
+            case "code":
+                IIntermediateCode code = new IntermediateCode();
+
+                Parser parser;
+
+                try (DfaScanner scanner = new DfaScanner(path(directory, operand(operands, 0)), StandardCharsets.UTF_8)) {
+                    parser = new Parser(scanner, code);
+                    parser.parse();
+                }
+
+                return optimized ? OptimizerPipeline.standard().optimize(code, parser.getSymbols()).toString() : code.toString();
+
+            case "run":
+                IStackMachine stackMachine = new StackMachine();
+
+                stackMachine.load(compiler.compileToProgram(path(directory, operand(operands, 0))));
+                stackMachine.run();
+
+                return "The memory \n\n" + stackMachine.memory() + "\n";
+
+            case "translate":
+                String expression = operand(operands, 0);
+                IPostfixTranslator postfix = new PostfixTranslator(new DfaScanner(expression));
+
+                return "Infix expression   " + expression + "\n" +
+                       "Postfix expression " + postfix.translate() + "\n" +
+                       "Evaluated postfix expression " + postfix.evaluate() + "\n";
+
+            case "evaluate":
+                return new PostfixTranslator(new DfaScanner(operand(operands, 0))).interpret() + "\n";
+
+            default:
+                throw new Exception("\nCompile server: unknown command '" + command + "'");
+        }
+    }
+
+    private static String operand(List<String> operands, int index) throws Exception {
+        if (index >= operands.size()) {
+            throw new Exception("\nCompile server: missing argument");
+        }
+
+        return operands.get(index);
+    }
+
+    private static String path(String directory, String path) {
+        return directory == null ? path : Paths.get(directory).resolve(path).toString();
+    }
+}
@@ -0,0 +1,7 @@
+package server;
+
+public interface ICompileService {
+
+    public Response execute(Request request);
+
+}
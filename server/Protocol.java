@@ -0,0 +1,163 @@
+package server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/*
+ *  Framing of the requests and responses of the compile server
+ *
+ *  Every message is a frame: its length (4 bytes, big endian) followed by that many bytes. A string is
+ *  its length followed by its UTF-8 bytes.
+ *
+ *     request     id, command, number of arguments, arguments
+ *     response    id, status (0 succeeded, 1 failed), output, diagnostics
+ *
+ *  The requests of a connection can be sent without waiting for the responses, which come back as soon
+ *  as they are ready, not in order: the id tells which request a response answers.
+ *
+ */
+
+final class Protocol {
+    static final int MAX_FRAME = 1 << 28;
+
+    private Protocol() {
+    }
+
+    // Returns null at the end of the input
+    static Request readRequest(ReadableByteChannel input) throws IOException {
+        ByteBuffer frame = readFrame(input);
+
+        if (frame == null) {
+            return null;
+        }
+
+        int id = frame.getInt();
+        String command = getString(frame);
+        String[] arguments = new String[count(frame)];
+
+        for (int i = 0; i < arguments.length; i++) {
+            arguments[i] = getString(frame);
+        }
+
+        return new Request(id, command, arguments);
+    }
+
+    static void writeRequest(WritableByteChannel output, Request request) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream payload = new DataOutputStream(bytes);
+
+        payload.writeInt(request.getId());
+        putString(payload, request.getCommand());
+        payload.writeInt(request.getArguments().length);
+
+        for (String argument : request.getArguments()) {
+            putString(payload, argument);
+        }
+
+        writeFrame(output, bytes);
+    }
+
+    // Returns null at the end of the input
+    static Response readResponse(ReadableByteChannel input) throws IOException {
+        ByteBuffer frame = readFrame(input);
+
+        if (frame == null) {
+            return null;
+        }
+
+        int id = frame.getInt();
+        boolean succeeded = frame.get() == 0;
+
+        return new Response(id, succeeded, getString(frame), getString(frame));
+    }
+
+    static void writeResponse(WritableByteChannel output, Response response) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream payload = new DataOutputStream(bytes);
+
+        payload.writeInt(response.getId());
+        payload.writeByte(response.isSucceeded() ? 0 : 1);
+        putString(payload, response.getOutput());
+        putString(payload, response.getDiagnostics());
+
+        writeFrame(output, bytes);
+    }
+
+    private static ByteBuffer readFrame(ReadableByteChannel input) throws IOException {
+        ByteBuffer length = ByteBuffer.allocate(4);
+
+        if (!readFully(input, length, true)) {
+            return null;
+        }
+
+        int size = length.flip().getInt();
+
+        if (size < 0 || size > MAX_FRAME) {
+            throw new IOException("Compile server: invalid frame length " + size);
+        }
+
+        ByteBuffer frame = ByteBuffer.allocate(size);
+
+        readFully(input, frame, false);
+
+        return frame.flip();
+    }
+
+    // Returns false if the input ends before the first byte (and end is allowed there)
+    private static boolean readFully(ReadableByteChannel input, ByteBuffer buffer, boolean end) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (input.read(buffer) < 0) {
+                if (end && buffer.position() == 0) {
+                    return false;
+                }
+
+                throw new EOFException("Compile server: connection closed in the middle of a message");
+            }
+        }
+
+        return true;
+    }
+
+    private static void writeFrame(WritableByteChannel output, ByteArrayOutputStream payload) throws IOException {
+        ByteBuffer frame = ByteBuffer.allocate(4 + payload.size());
+
+        frame.putInt(payload.size());
+        frame.put(payload.toByteArray());
+        frame.flip();
+
+        while (frame.hasRemaining()) {
+            output.write(frame);
+        }
+    }
+
+    private static void putString(DataOutputStream payload, String string) throws IOException {
+        byte[] bytes = (string == null ? "" : string).getBytes(StandardCharsets.UTF_8);
+
+        payload.writeInt(bytes.length);
+        payload.write(bytes);
+    }
+
+    private static String getString(ByteBuffer frame) throws IOException {
+        byte[] bytes = new byte[count(frame)];
+
+        frame.get(bytes);
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int count(ByteBuffer frame) throws IOException {
+        int count = frame.getInt();
+
+        if (count < 0 || count > frame.remaining()) {
+            throw new IOException("Compile server: malformed message");
+        }
+
+        return count;
+    }
+}
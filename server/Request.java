@@ -0,0 +1,34 @@
+package server;
+
+import java.util.Arrays;
+
+// A command of the compile server with its arguments, the id pairs it with its response
+
+public class Request {
+    private final int id;
+    private final String command;
+    private final String[] arguments;
+
+    public Request(int id, String command, String... arguments) {
+        this.id = id;
+        this.command = command;
+        this.arguments = arguments;
+    }
+
+    public int getId() {
+        return this.id;
+    }
+
+    public String getCommand() {
+        return this.command;
+    }
+
+    public String[] getArguments() {
+        return this.arguments;
+    }
+
+    @Override
+    public String toString() {
+        return this.id + " " + this.command + " " + Arrays.toString(this.arguments);
+    }
+}
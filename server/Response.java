@@ -0,0 +1,33 @@
+package server;
+
+// Result of a request: its output (code, value, ...) and the diagnostics (the error message if it failed)
+
+public class Response {
+    private final int id;
+    private final boolean succeeded;
+    private final String output;
+    private final String diagnostics;
+
+    public Response(int id, boolean succeeded, String output, String diagnostics) {
+        this.id = id;
+        this.succeeded = succeeded;
+        this.output = output;
+        this.diagnostics = diagnostics;
+    }
+
+    public int getId() {
+        return this.id;
+    }
+
+    public boolean isSucceeded() {
+        return this.succeeded;
+    }
+
+    public String getOutput() {
+        return this.output;
+    }
+
+    public String getDiagnostics() {
+        return this.diagnostics;
+    }
+}
@@ -0,0 +1,20 @@
+package stackmachine.compiler;
+
+import slu.compiler.IDataType;
+
+public interface ISymbolTable {
+
+    public int add(CharSequence name, IDataType type);
+    public int lookup(CharSequence name);
+    public String getName(int slot);
+    public IDataType getType(int slot);
+    public int getTypeTag(int slot);
+    public int size();
+    public void addDefinitions(int slot, int count);
+    public void addUses(int slot, int count);
+    public int getDefinitions(int slot);
+    public int getUses(int slot);
+    public int[] removeUnused();
+    public String toString();
+
+}
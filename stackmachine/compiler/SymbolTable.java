@@ -0,0 +1,242 @@
+package stackmachine.compiler;
+
+import java.util.Arrays;
+import slu.compiler.IDataType;
+
+/*
+ *  Symbol table that gives every declared identifier a dense slot number (0, 1, 2, ...) in declaration order
+ *
+ *  The hash table uses open addressing with linear probing over an int array holding slot + 1 (0 is an
+ *  empty bucket), and compares the characters of the name directly, so any CharSequence can be looked up.
+ *
+ *  Every symbol also counts the stores (definitions) and loads (uses) of its variable in the code, the
+ *  parser adds them as it generates the code and the optimizers take off the ones they remove.
+ *
+ */
+
+public class SymbolTable implements ISymbolTable {
+    // Type tags of the primitive types
+    public static final int INT     = 0;
+    public static final int FLOAT   = 1;
+    public static final int BOOLEAN = 2;
+    public static final int OTHER   = 3;
+
+    private int[] buckets;
+    private int[] hashes;
+    private String[] names;
+    private IDataType[] types;
+    private int[] tags;
+    private int[] definitions;
+    private int[] uses;
+    private int size;
+
+    public SymbolTable() {
+        this.buckets = new int[64];
+        this.hashes = new int[32];
+        this.names = new String[32];
+        this.types = new IDataType[32];
+        this.tags = new int[32];
+        this.definitions = new int[32];
+        this.uses = new int[32];
+    }
+
+    // Returns the slot of the new symbol, or -1 if the name is already declared
+    @Override
+    public int add(CharSequence name, IDataType type) {
+        int hash = hash(name);
+        int mask = this.buckets.length - 1;
+        int bucket = hash & mask;
+
+        while (this.buckets[bucket] != 0) {
+            if (matches(this.buckets[bucket] - 1, hash, name)) {
+                return -1;
+            }
+
+            bucket = (bucket + 1) & mask;
+        }
+
+        if (this.size == this.names.length) {
+            int capacity = this.size * 2;
+
+            this.hashes = Arrays.copyOf(this.hashes, capacity);
+            this.names = Arrays.copyOf(this.names, capacity);
+            this.types = Arrays.copyOf(this.types, capacity);
+            this.tags = Arrays.copyOf(this.tags, capacity);
+            this.definitions = Arrays.copyOf(this.definitions, capacity);
+            this.uses = Arrays.copyOf(this.uses, capacity);
+        }
+
+        int slot = this.size++;
+
+        this.hashes[slot] = hash;
+        this.names[slot] = name.toString();
+        this.types[slot] = type;
+        this.tags[slot] = tag(type);
+        this.buckets[bucket] = slot + 1;
+
+        // Keep the load factor at most 1/2
+        if (this.size * 2 > this.buckets.length) {
+            rehash(this.buckets.length * 2);
+        }
+
+        return slot;
+    }
+
+    // Returns the slot of the name, or -1 if it is not declared
+    @Override
+    public int lookup(CharSequence name) {
+        int hash = hash(name);
+        int mask = this.buckets.length - 1;
+
+        for (int bucket = hash & mask; this.buckets[bucket] != 0; bucket = (bucket + 1) & mask) {
+            if (matches(this.buckets[bucket] - 1, hash, name)) {
+                return this.buckets[bucket] - 1;
+            }
+        }
+
+        return -1;
+    }
+
+    @Override
+    public String getName(int slot) {
+        return this.names[slot];
+    }
+
+    @Override
+    public IDataType getType(int slot) {
+        return this.types[slot];
+    }
+
+    @Override
+    public int getTypeTag(int slot) {
+        return this.tags[slot];
+    }
+
+    @Override
+    public int size() {
+        return this.size;
+    }
+
+    @Override
+    public void addDefinitions(int slot, int count) {
+        this.definitions[slot] = this.definitions[slot] + count;
+    }
+
+    @Override
+    public void addUses(int slot, int count) {
+        this.uses[slot] = this.uses[slot] + count;
+    }
+
+    @Override
+    public int getDefinitions(int slot) {
+        return this.definitions[slot];
+    }
+
+    @Override
+    public int getUses(int slot) {
+        return this.uses[slot];
+    }
+
+    // Remove the symbols with no definitions and no uses, the others keep their order in the first slots.
+    // Returns the new slot of every old one (-1 if it was removed)
+    @Override
+    public int[] removeUnused() {
+        int[] slots = new int[this.size];
+        int size = 0;
+
+        for (int slot = 0; slot < this.size; slot++) {
+            if (this.definitions[slot] == 0 && this.uses[slot] == 0) {
+                slots[slot] = -1;
+                continue;
+            }
+
+            this.hashes[size] = this.hashes[slot];
+            this.names[size] = this.names[slot];
+            this.types[size] = this.types[slot];
+            this.tags[size] = this.tags[slot];
+            this.definitions[size] = this.definitions[slot];
+            this.uses[size] = this.uses[slot];
+
+            slots[slot] = size++;
+        }
+
+        if (size < this.size) {
+            Arrays.fill(this.names, size, this.size, null);
+            Arrays.fill(this.types, size, this.size, null);
+
+            this.size = size;
+
+            rehash(this.buckets.length);
+        }
+
+        return slots;
+    }
+
+    // Name table in slot order, kept for debugging
+    @Override
+    public String toString() {
+        StringBuilder symbols = new StringBuilder();
+
+        for (int slot = 0; slot < this.size; slot++) {
+            symbols.append("<'").append(this.names[slot]).append("', ").append(this.types[slot].toString()).append("> \n");
+        }
+
+        return symbols.toString();
+    }
+
+    private boolean matches(int slot, int hash, CharSequence name) {
+        if (this.hashes[slot] != hash) {
+            return false;
+        }
+
+        String symbol = this.names[slot];
+
+        if (symbol.length() != name.length()) {
+            return false;
+        }
+
+        for (int i = 0; i < symbol.length(); i++) {
+            if (symbol.charAt(i) != name.charAt(i)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private void rehash(int capacity) {
+        this.buckets = new int[capacity];
+
+        int mask = this.buckets.length - 1;
+
+        for (int slot = 0; slot < this.size; slot++) {
+            int bucket = this.hashes[slot] & mask;
+
+            while (this.buckets[bucket] != 0) {
+                bucket = (bucket + 1) & mask;
+            }
+
+            this.buckets[bucket] = slot + 1;
+        }
+    }
+
+    private static int hash(CharSequence name) {
+        int hash = 0;
+
+        for (int i = 0; i < name.length(); i++) {
+            hash = 31 * hash + name.charAt(i);
+        }
+
+        // Spread the high bits, the bucket is taken from the low ones
+        return hash ^ (hash >>> 16);
+    }
+
+    private static int tag(IDataType type) {
+        switch (type.getType()) {
+            case "int":     return INT;
+            case "float":   return FLOAT;
+            case "boolean": return BOOLEAN;
+            default:        return OTHER;
+        }
+    }
+}
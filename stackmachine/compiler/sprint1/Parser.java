@@ -1,9 +1,9 @@
 package stackmachine.compiler.sprint1;
 
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Set;
+import lexer.TokenKind;
 import slu.compiler.*;
+import stackmachine.compiler.ISymbolTable;
+import stackmachine.compiler.SymbolTable;
 
 /* 
  *  Syntax-directed definition for declaration of variables
@@ -31,30 +31,26 @@ import slu.compiler.*;
  */
 
 public class Parser implements IParser {
+    private static final long FIRST_DECLARATION = TokenKind.mask(TokenKind.INT, TokenKind.FLOAT, TokenKind.BOOLEAN);
+
     private IToken token;
+    // Integer kind of the current token, the parser decides on it instead of the token name
+    private int kind;
     private IScanner scanner;
-    // HashTable to hold symbols
-    private Map<String, IDataType> symbols;
+    // Hash table to hold symbols, every symbol gets a slot number
+    private ISymbolTable symbols;
     
-    public Parser(Scanner scanner) {
+    public Parser(IScanner scanner) {
         this.scanner = scanner;
         this.token = this.scanner.getToken();
-        this.symbols = new HashMap<String, IDataType>();
+        this.kind = TokenKind.of(this.token);
+        this.symbols = new SymbolTable();
     }
     
     @Override
     public String symbolTable() {
-        String symbols = "";
-        
-        // Creates object with [key=value, key=value]
-        Set<Map.Entry<String, IDataType>> s = this.symbols.entrySet();
-
-        // Printing out the symbol table
-        for (Map.Entry<String, IDataType> m : s) {
-            symbols = symbols + "<'" + m.getKey() + "', " + m.getValue().toString() + "> \n";
-        }
-        
-        return symbols;
+        // Printing out the symbol table in slot (declaration) order
+        return this.symbols.toString();
     }
     
     @Override
@@ -64,13 +60,13 @@ public class Parser implements IParser {
 
     private void program() throws Exception {
         // Matches exact grammar definition of starting non-terminal symbol
-        match("void");
-        match("main");
-        match("open-curly-bracket");
+        match(TokenKind.VOID);
+        match(TokenKind.MAIN);
+        match(TokenKind.OPEN_CURLY_BRACKET);
         
         declarations();
         
-        match("closed-curly-bracket");
+        match(TokenKind.CLOSED_CURLY_BRACKET);
     }
     
     private void declarations() throws Exception {
@@ -78,10 +74,9 @@ public class Parser implements IParser {
        // if the current token is a primitive data type "int", "float" or "boolean", call functions declaration and declarations
        // otherwise do nothing, since the rule declarations produce epsilon
        
-       if (this.token.getName().equals("int") || this.token.getName().equals("float") || 
-       this.token.getName().equals("boolean")) {
+       // (a loop instead of the recursion of the grammar, so the number of declarations is not limited by the stack)
+       while (TokenKind.in(this.kind, FIRST_DECLARATION)) {
             declaration();
-            declarations();
         }
 
        // or epsilon --> no else
@@ -90,38 +85,36 @@ public class Parser implements IParser {
     private void declaration() throws Exception {
         // how does identifiers on the outside work?
         identifiers(type());
-        match("semicolon");    
+        match(TokenKind.SEMICOLON);    
     }
 
     private String type() throws Exception {
-        String type = this.token.getName();
+        String type = TokenKind.name(this.kind);
         
-        if (type.equals("int")) {
-            match("int");
-        } else if (type.equals("float")) {
-            match("float");
-        } else if (type.equals("boolean")) {
-            match("boolean");
-        } else {
-            throw new Exception("\nError at line " + this.scanner.getLine() + ": data type expected");
+        switch (this.kind) {
+            case TokenKind.INT:
+            case TokenKind.FLOAT:
+            case TokenKind.BOOLEAN:
+                match(this.kind);
+                break;
+            default:
+                throw new Exception("\nError at line " + this.scanner.getLine() + ": data type expected");
         }
         
         return type;
     }
 
     private void identifiers(String type) throws Exception {
-		if (this.token.getName().equals("id")) {
+		if (this.kind == TokenKind.ID) {
             // Downcast to identifier
 			Identifier id = (Identifier) this.token;
 
-            // Check to see if the id is in the hashtable
-			if (this.symbols.get(id.getLexeme()) == null)
-				this.symbols.put(id.getLexeme(), new PrimitiveType(type));
-			else {
+            // Check to see if the id is in the hashtable, add it if it is not
+			if (this.symbols.add(id.getLexeme(), new PrimitiveType(type)) < 0) {
 				throw new Exception("\nError at line " + this.scanner.getLine() + ": identifier '" + id.getLexeme() + "' is already declared");
 			}
 		
-			match("id");
+			match(TokenKind.ID);
 			
 			moreIdentifiers(type);
 		} else {
@@ -131,32 +124,31 @@ public class Parser implements IParser {
 	
 	private void moreIdentifiers(String type) throws Exception {
         // Must start with a comma
-		if (this.token.getName().equals("comma")) {
-			match("comma");
+		while (this.kind == TokenKind.COMMA) {
+			match(TokenKind.COMMA);
 			
             // Must be an id
-			if (this.token.getName().equals("id")) {
+			if (this.kind == TokenKind.ID) {
 				Identifier id = (Identifier) this.token;
 
-				if (this.symbols.get(id.getLexeme()) == null) {
-					this.symbols.put(id.getLexeme(), new PrimitiveType(type));
-				} else {
+				if (this.symbols.add(id.getLexeme(), new PrimitiveType(type)) < 0) {
 					throw new Exception("\nError at line " + this.scanner.getLine() + ": identifier '" + id.getLexeme() + "' is already declared");
 				}
 
-				match("id");
-
-				moreIdentifiers(type);
+				match(TokenKind.ID);
 			} else {
 				throw new Exception("\nError at line " + this.scanner.getLine() + ": identifier expected");				
 			}		
 		}
 	}
     
-    private void match(String tokenName) throws Exception {
-        if (this.token.getName().equals(tokenName))  {
+    private void match(int kind) throws Exception {
+        if (this.kind == kind) {
             this.token = this.scanner.getToken();
+            this.kind = TokenKind.of(this.token);
         } else {
+            String tokenName = TokenKind.name(kind);
+
             throw new Exception("\nError at line " + this.scanner.getLine() + ": " +
                (this.scanner.getLexeme(tokenName).equals("null") ? "token " + tokenName + " is not defined in 'lexicon.txt'" : tokenName + " expected"));
         }
@@ -0,0 +1,64 @@
+package stackmachine.compiler.sprint2;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Instructions entered only at the first one and left only after the last one, ending with a jump (its branch) or not
+
+public class BasicBlock {
+    private String label;
+    private final List<String> instructions;
+    // Mnemonic of the jump that ends the block (null if there is none) and the block it goes to
+    private String branch;
+    private BasicBlock target;
+    // Position in the layout of the graph
+    int index;
+
+    public BasicBlock(String label) {
+        this.label = label;
+        this.instructions = new ArrayList<String>();
+    }
+
+    public String getLabel() {
+        return this.label;
+    }
+
+    public void setLabel(String label) {
+        this.label = label;
+    }
+
+    public List<String> getInstructions() {
+        return this.instructions;
+    }
+
+    public String getBranch() {
+        return this.branch;
+    }
+
+    public BasicBlock getTarget() {
+        return this.target;
+    }
+
+    public void setBranch(String branch, BasicBlock target) {
+        this.branch = branch;
+        this.target = target;
+    }
+
+    public boolean isEmpty() {
+        return this.instructions.isEmpty();
+    }
+
+    // False if the block ends with goto or halt, the next block in the layout is then only reached by a jump
+    public boolean fallsThrough() {
+        if (this.branch != null) {
+            return !this.branch.equals("goto");
+        }
+
+        return this.instructions.isEmpty() || !this.instructions.get(this.instructions.size() - 1).equals("halt");
+    }
+
+    // Number of instructions, the jump included
+    public int size() {
+        return this.instructions.size() + (this.branch == null ? 0 : 1);
+    }
+}
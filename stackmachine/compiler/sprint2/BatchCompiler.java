@@ -0,0 +1,266 @@
+package stackmachine.compiler.sprint2;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import instrumentation.CompilerMetrics;
+import instrumentation.ICompilerMetrics;
+
+/*
+ *  Compiles many programs at once on a fixed pool of worker threads
+ *
+ *  Every program gets its own StackMachineCompiler (and optimizer), the scanners share the compiled
+ *  lexicon. The results are handed over in the order of the programs, whatever the order in which
+ *  they finish, and a program that does not compile does not stop the others. A program whose output
+ *  file is the one of an earlier program (a/x.txt and b/x.txt with -o) is not compiled, it is an error.
+ *
+ *  Usage: java stackmachine.compiler.sprint2.BatchCompiler [-j threads] [-o directory] [-c directory] [-O] [-b] [-m] program...
+ *
+ *     -j  number of worker threads (default: the number of processors)
+ *     -o  directory of the output files (default: the directory of each program)
+ *     -c  directory of the compilation cache (default: no cache)
+ *     -O  run the optimizers (see OptimizerPipeline)
+ *     -b  write bytecode (.smbc) instead of code (.sm)
+ *     -m  measure the compiles and print the counters and the time of each phase
+ *
+ *  A program can be a file, a directory (its .txt files except lexicon.txt) or @file with one program per line.
+ *
+ */
+
+public class BatchCompiler implements IBatchCompiler {
+    private final int threads;
+    private String outputDirectory;
+    private boolean optimized;
+    private boolean bytecode;
+    private ICompilationCache cache;
+    private ICompilerMetrics metrics = CompilerMetrics.global();
+
+    public BatchCompiler() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public BatchCompiler(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    // null to write every output file next to its program
+    public void setOutputDirectory(String outputDirectory) {
+        this.outputDirectory = outputDirectory;
+    }
+
+    public void setOptimized(boolean optimized) {
+        this.optimized = optimized;
+    }
+
+    public void setBytecode(boolean bytecode) {
+        this.bytecode = bytecode;
+    }
+
+    // Shared by all the workers (null for no cache)
+    public void setCache(ICompilationCache cache) {
+        this.cache = cache;
+    }
+
+    // Shared by all the workers (null for no metrics)
+    public void setMetrics(ICompilerMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public List<BatchResult> compile(List<String> programs) throws Exception {
+        List<BatchResult> results = new ArrayList<BatchResult>(programs.size());
+
+        compile(programs, results::add);
+
+        return results;
+    }
+
+    @Override
+    public void compile(List<String> programs, Consumer<BatchResult> results) throws Exception {
+        ExecutorService workers = Executors.newFixedThreadPool(Math.min(this.threads, Math.max(1, programs.size())));
+
+        try {
+            List<Future<BatchResult>> futures = new ArrayList<Future<BatchResult>>(programs.size());
+            Map<Path, String> outputs = new HashMap<Path, String>();
+
+            for (String program : programs) {
+                String output = outputFile(program);
+                String first = outputs.putIfAbsent(Paths.get(output).toAbsolutePath().normalize(), program);
+
+                if (first != null) {
+                    futures.add(CompletableFuture.completedFuture(new BatchResult(program, output, "\nBatch compiler: '" + output + "' is also the output of '" + first + "'", 0)));
+                } else {
+                    futures.add(workers.submit(() -> compile(program, output)));
+                }
+            }
+
+            for (Future<BatchResult> future : futures) {
+                results.accept(future.get());
+            }
+
+        } catch (ExecutionException e) {
+            throw new Exception(e.getCause().getMessage());
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    private BatchResult compile(String program, String output) {
+        long start = System.nanoTime();
+
+        try {
+
+            StackMachineCompiler compiler = new StackMachineCompiler();
+
+            if (this.optimized) {
+                compiler.setOptimizer(OptimizerPipeline.standard());
+            }
+
+            compiler.setCache(this.cache);
+            compiler.setMetrics(this.metrics);
+
+            if (this.bytecode) {
+                compiler.compileToBytecode(program, output);
+            } else {
+                compiler.compile(program, output);
+            }
+
+            return new BatchResult(program, output, null, System.nanoTime() - start);
+
+        } catch (Exception | StackOverflowError e) {
+            String message = e instanceof StackOverflowError ? "\nThe program is too deeply nested" : e.getMessage();
+
+            return new BatchResult(program, output, message, System.nanoTime() - start);
+        }
+    }
+
+    // program.txt -> program.sm (or program.smbc)
+    private String outputFile(String program) {
+        Path path = Paths.get(program);
+        String name = path.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+
+        name = (dot > 0 ? name.substring(0, dot) : name) + (this.bytecode ? ".smbc" : ".sm");
+
+        Path directory = this.outputDirectory != null ? Paths.get(this.outputDirectory) : path.toAbsolutePath().getParent();
+
+        return directory.resolve(name).toString();
+    }
+
+    // Expand the directories and @lists of the command line into program files
+    private static List<String> programs(List<String> arguments) throws Exception {
+        List<String> programs = new ArrayList<String>();
+
+        for (String argument : arguments) {
+            if (argument.startsWith("@")) {
+                for (String line : Files.readAllLines(Paths.get(argument.substring(1)), StandardCharsets.UTF_8)) {
+                    if (!line.trim().isEmpty()) {
+                        programs.add(line.trim());
+                    }
+                }
+            } else if (Files.isDirectory(Paths.get(argument))) {
+                List<String> files = new ArrayList<String>();
+
+                try (DirectoryStream<Path> directory = Files.newDirectoryStream(Paths.get(argument), "*.txt")) {
+                    for (Path file : directory) {
+                        if (Files.isRegularFile(file) && !file.getFileName().toString().equals("lexicon.txt")) {
+                            files.add(file.toString());
+                        }
+                    }
+                }
+
+                files.sort(null);
+                programs.addAll(files);
+            } else {
+                programs.add(argument);
+            }
+        }
+
+        return programs;
+    }
+
+    public static void main(String[] args) {
+        try {
+
+            String outputDirectory = null;
+            String cacheDirectory = null;
+            boolean optimized = false;
+            boolean bytecode = false;
+            boolean measured = false;
+            int threads = Runtime.getRuntime().availableProcessors();
+            List<String> arguments = new ArrayList<String>();
+
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "-j": threads = Integer.parseInt(args[++i]); break;
+                    case "-o": outputDirectory = args[++i]; break;
+                    case "-c": cacheDirectory = args[++i]; break;
+                    case "-O": optimized = true; break;
+                    case "-b": bytecode = true; break;
+                    case "-m": measured = true; break;
+                    default:   arguments.add(args[i]);
+                }
+            }
+
+            List<String> programs = programs(arguments);
+
+            BatchCompiler batchCompiler = new BatchCompiler(threads);
+            batchCompiler.setOutputDirectory(outputDirectory);
+            batchCompiler.setOptimized(optimized);
+            batchCompiler.setBytecode(bytecode);
+
+            if (cacheDirectory != null) {
+                batchCompiler.setCache(new CompilationCache(cacheDirectory));
+            }
+
+            if (measured && batchCompiler.metrics == null) {
+                batchCompiler.setMetrics(new CompilerMetrics());
+            }
+
+            if (outputDirectory != null) {
+                Files.createDirectories(Paths.get(outputDirectory));
+            }
+
+            long start = System.nanoTime();
+            int[] errors = new int[1];
+
+            batchCompiler.compile(programs, result -> {
+                if (!result.isCompiled()) {
+                    errors[0]++;
+                }
+
+                System.out.println(result);
+            });
+
+            System.out.printf("%d programs, %d errors, %d threads, %.3f s%n", programs.size(), errors[0], threads, (System.nanoTime() - start) / 1e9);
+
+            if (batchCompiler.cache != null) {
+                System.out.print(batchCompiler.cache.report());
+            }
+
+            if (measured) {
+                System.out.print(batchCompiler.metrics.report());
+            }
+
+            if (errors[0] > 0) {
+                System.exit(1);
+            }
+
+        } catch (Exception e) {
+            System.out.println(e.getMessage());
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package stackmachine.compiler.sprint2;
+
+// Outcome of compiling one program of a batch
+
+public class BatchResult {
+    private final String program;
+    private final String output;
+    private final String error;
+    private final long time;
+
+    public BatchResult(String program, String output, String error, long time) {
+        this.program = program;
+        this.output = output;
+        this.error = error;
+        this.time = time;
+    }
+
+    public String getProgram() {
+        return this.program;
+    }
+
+    public String getOutput() {
+        return this.output;
+    }
+
+    // The message of the compile error, null if the program compiled
+    public String getError() {
+        return this.error;
+    }
+
+    public boolean isCompiled() {
+        return this.error == null;
+    }
+
+    // Nanoseconds
+    public long getTime() {
+        return this.time;
+    }
+
+    @Override
+    public String toString() {
+        if (this.error == null) {
+            return this.program + " -> " + this.output;
+        }
+
+        return this.program + ":" + this.error.replace("\n", " ");
+    }
+}
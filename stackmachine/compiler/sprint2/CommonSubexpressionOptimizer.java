@@ -0,0 +1,468 @@
+package stackmachine.compiler.sprint2;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import slu.compiler.PrimitiveType;
+import stackmachine.compiler.ISymbolTable;
+import stackmachine.vm.Opcode;
+
+/*
+ *  Common subexpression elimination by value numbering, from one label to the next
+ *
+ *  The code of an expression is in postfix order, so running it on a stack of value numbers instead of
+ *  values rebuilds its DAG: a load is numbered by its variable and the number of stores to it so far, a
+ *  constant by itself and an operation by its operands (in either order for iadd, imul, ieq, ine, and,
+ *  or). An operation that already has a number computes the value again, with the code of its operands
+ *  right before it:
+ *
+ *     x = a * b + c;                 iloadvar a; iloadvar b; imul; iloadvar c; iadd; dup; istorevar $t1; istorevar x
+ *     y = (a * b + c) * 2;           iloadvar $t1; ipush 2; imul; istorevar y
+ *
+ *  The first computation is stored in a compiler temporary (added to the symbol table as $t1, $t2, ...)
+ *  and the others load it, the biggest repeated expression first. A store to a variable gives its loads
+ *  new numbers, so an expression that reads it is computed again. A label starts over: the code after it
+ *  is also reached from elsewhere. An expression is only replaced where it saves instructions, counting
+ *  the two that store the temporary.
+ *
+ *  Temporaries only live from the first computation to the last load before the next label, so each
+ *  stretch of code between labels uses them again from $t1.
+ *
+ */
+
+public class CommonSubexpressionOptimizer implements IOptimizer {
+    private static final int[] COMMUTATIVE = { Opcode.IADD, Opcode.IMUL, Opcode.IEQ, Opcode.INE, Opcode.AND, Opcode.OR };
+
+    private int applied;
+    private int saved;
+    // Temporaries added to the symbol table of the code being optimized
+    private int temporaries;
+
+    private List<String> code;
+    private ISymbolTable symbols;
+    // Value numbers of the operations, and stores to each variable so far
+    private Map<String, Integer> numbers;
+    private int[] versions;
+    private int count;
+    // Stack of the value numbers, the first instruction that computes each value (-1 if its code cannot
+    // be replaced by a load) and its type (i or f), or the slot of an address
+    private int[] stack;
+    private int[] starts;
+    private char[] types;
+    private int[] addresses;
+    private int depth;
+    // By instruction: the value number of the operation it ends and the first instruction of its code
+    // (-1 if it does not end one that can be replaced)
+    private int[] values;
+    private int[] first;
+    // By value number: where it is computed first, its type and the loads that replace it
+    private int[] computed;
+    private char[] valueTypes;
+    private int[] reused;
+
+    @Override
+    public IIntermediateCode optimize(IIntermediateCode code, ISymbolTable symbols) throws Exception {
+        this.code = code.getInstructions();
+        this.symbols = symbols;
+        this.temporaries = 0;
+
+        number();
+
+        int[] ends = replace();
+
+        return generate(ends);
+    }
+
+    @Override
+    public String getId() {
+        return "common-subexpression";
+    }
+
+    @Override
+    public String report() {
+        return "common-subexpression: applied " + this.applied + " times, " + this.saved + " instructions removed\n";
+    }
+
+    public int getRemoved() {
+        return this.saved;
+    }
+
+    // Number the values the instructions compute
+    private void number() {
+        int size = this.code.size();
+
+        this.numbers = new HashMap<String, Integer>();
+        this.versions = new int[Math.max(this.symbols.size(), 1)];
+        this.count = 0;
+        this.stack = new int[16];
+        this.starts = new int[16];
+        this.types = new char[16];
+        this.addresses = new int[16];
+        this.depth = 0;
+        this.values = new int[size];
+        this.first = new int[size];
+        this.computed = new int[16];
+        this.valueTypes = new char[16];
+
+        Arrays.fill(this.first, -1);
+        Arrays.fill(this.computed, -1);
+
+        for (int i = 0; i < size; i++) {
+            String instruction = this.code.get(i);
+
+            if (instruction.endsWith(":")) {
+                // Values computed before the label are not there when it is reached by a jump
+                this.numbers.clear();
+                opaque(0);
+                continue;
+            }
+
+            int opcode = Opcode.valueOf(mnemonic(instruction));
+
+            switch (opcode) {
+                case Opcode.IPUSH:
+                case Opcode.FPUSH:
+                    push(number(instruction), i, instruction.charAt(0), -1);
+                    break;
+
+                case Opcode.ILOADVAR:
+                case Opcode.FLOADVAR:
+                    push(load(slot(instruction)), i, instruction.charAt(0), -1);
+                    break;
+
+                case Opcode.ADDRESSOF:
+                    push(++this.count, i, 'a', slot(instruction));
+                    break;
+
+                case Opcode.ILOAD:
+                case Opcode.FLOAD:
+                    int address = this.depth > 0 ? this.addresses[this.depth - 1] : -1;
+                    int start = this.depth > 0 ? this.starts[this.depth - 1] : -1;
+
+                    pop(1);
+                    push(address < 0 ? ++this.count : load(address), start, instruction.charAt(0), -1);
+                    break;
+
+                case Opcode.ISTOREVAR:
+                case Opcode.FSTOREVAR:
+                    pop(1);
+                    store(slot(instruction));
+                    break;
+
+                case Opcode.ISTORE:
+                case Opcode.FSTORE:
+                    pop(1);
+                    store(this.depth > 0 ? this.addresses[this.depth - 1] : -1);
+                    pop(1);
+                    break;
+
+                case Opcode.DUP:
+                    // The copy is stored, the code of the value is not only its code any more
+                    if (this.depth > 0) {
+                        this.starts[this.depth - 1] = -1;
+                        push(this.stack[this.depth - 1], -1, this.types[this.depth - 1], -1);
+                    } else {
+                        push(++this.count, -1, 'i', -1);
+                    }
+                    break;
+
+                case Opcode.NOT:
+                case Opcode.I2F:
+                    operation(i, opcode, 1, opcode == Opcode.I2F ? 'f' : 'i');
+                    break;
+
+                case Opcode.I2F1:
+                    convertBelow();
+                    break;
+
+                default:
+                    if (opcode < 0 || opcode == Opcode.HALT || Opcode.hasTarget(opcode)) {
+                        pop(opcode < 0 ? 0 : -Opcode.stackEffect(opcode));
+                        // The code after goto and halt is only reached by a jump
+                        opaque(opcode == Opcode.GOTO || opcode == Opcode.HALT ? 0 : this.depth);
+                    } else {
+                        // Arithmetic, comparisons, and, or: the comparisons give booleans, kept like ints
+                        operation(i, opcode, 2, instruction.charAt(0) == 'f' && opcode >= Opcode.FADD && opcode <= Opcode.FREM ? 'f' : 'i');
+                    }
+                    break;
+            }
+        }
+    }
+
+    // Pick the computations to replace by a load of the temporary, returns their last instruction by
+    // their first one (-1 elsewhere)
+    private int[] replace() {
+        int size = this.code.size();
+        int[] ends = new int[size];
+
+        this.reused = new int[this.count + 1];
+
+        Arrays.fill(ends, -1);
+
+        // From the end, so a repeated expression is replaced before the ones inside it
+        int limit = size;
+
+        for (int i = size - 1; i >= 0; i--) {
+            if (this.first[i] >= 0 && i < limit && this.computed[this.values[i]] < i) {
+                ends[this.first[i]] = i;
+                this.reused[this.values[i]]++;
+                limit = this.first[i];
+            }
+        }
+
+        // Undo the ones that do not save more than the two instructions that store the temporary
+        int[] savings = new int[this.count + 1];
+
+        for (int start = 0; start < size; start++) {
+            if (ends[start] >= 0) {
+                savings[this.values[ends[start]]] += ends[start] - start;
+            }
+        }
+
+        for (int start = 0; start < size; start++) {
+            if (ends[start] >= 0 && savings[this.values[ends[start]]] <= 2) {
+                this.reused[this.values[ends[start]]] = 0;
+                ends[start] = -1;
+            }
+        }
+
+        return ends;
+    }
+
+    private IIntermediateCode generate(int[] ends) throws Exception {
+        IIntermediateCode optimized = new IntermediateCode();
+        List<Integer> integers = new ArrayList<Integer>();
+        List<Integer> floats = new ArrayList<Integer>();
+        // Temporaries in use since the last label, and the one of each value number
+        int usedIntegers = 0;
+        int usedFloats = 0;
+        int[] temporaries = new int[this.count + 1];
+
+        for (int i = 0; i < this.code.size(); i++) {
+            String instruction = this.code.get(i);
+
+            if (ends[i] >= 0) {
+                int value = this.values[ends[i]];
+
+                for (int j = i; j <= ends[i]; j++) {
+                    forget(this.code.get(j));
+                }
+
+                optimized.generate(this.valueTypes[value] + "loadvar " + temporaries[value]);
+
+                this.saved = this.saved + ends[i] - i;
+                this.applied++;
+
+                i = ends[i];
+                continue;
+            }
+
+            optimized.generate(instruction);
+
+            if (instruction.endsWith(":")) {
+                usedIntegers = 0;
+                usedFloats = 0;
+                continue;
+            }
+
+            if (this.first[i] >= 0 && this.computed[this.values[i]] == i && this.reused[this.values[i]] > 0) {
+                int value = this.values[i];
+                boolean floating = this.valueTypes[value] == 'f';
+                List<Integer> pool = floating ? floats : integers;
+                int used = floating ? usedFloats++ : usedIntegers++;
+
+                if (used == pool.size()) {
+                    pool.add(temporary(floating ? "float" : "int"));
+                }
+
+                temporaries[value] = pool.get(used);
+
+                this.symbols.addDefinitions(temporaries[value], 1);
+                this.symbols.addUses(temporaries[value], this.reused[value]);
+
+                optimized.generate("dup");
+                optimized.generate(this.valueTypes[value] + "storevar " + temporaries[value]);
+
+                this.saved = this.saved - 2;
+            }
+        }
+
+        this.code = null;
+
+        return optimized;
+    }
+
+    // An operation on the values on top of the stack, numbered by the operation and their numbers
+    private void operation(int instruction, int opcode, int operands, char type) {
+        if (this.depth < operands) {
+            pop(operands);
+            push(++this.count, -1, type, -1);
+            return;
+        }
+
+        int right = this.stack[this.depth - 1];
+        int left = operands == 2 ? this.stack[this.depth - 2] : right;
+        boolean replaceable = this.starts[this.depth - 1] >= 0 && this.starts[this.depth - operands] >= 0;
+        int start = this.starts[this.depth - operands];
+
+        if (operands == 2 && left > right && isCommutative(opcode)) {
+            int swap = left;
+
+            left = right;
+            right = swap;
+        }
+
+        String key = operands == 2 ? opcode + " " + left + " " + right : opcode + " " + right;
+        Integer value = this.numbers.get(key);
+
+        if (value == null) {
+            value = ++this.count;
+            this.numbers.put(key, value);
+        }
+
+        pop(operands);
+        push(value, replaceable ? start : -1, type, -1);
+
+        if (replaceable) {
+            if (value >= this.computed.length) {
+                int length = this.computed.length;
+
+                this.computed = Arrays.copyOf(this.computed, Math.max(length * 2, value + 1));
+                this.valueTypes = Arrays.copyOf(this.valueTypes, this.computed.length);
+
+                Arrays.fill(this.computed, length, this.computed.length, -1);
+            }
+
+            // The first computation that can be stored in a temporary
+            if (this.computed[value] < 0) {
+                this.computed[value] = instruction;
+                this.valueTypes[value] = type;
+            }
+
+            this.values[instruction] = value;
+            this.first[instruction] = start;
+        }
+    }
+
+    // i2f.1 converts the value below the top: its code is not next to the conversion, so the result
+    // is never replaced alone, but an operation on it and the top still is
+    private void convertBelow() {
+        if (this.depth < 2) {
+            opaque(this.depth);
+            return;
+        }
+
+        String key = Opcode.I2F + " " + this.stack[this.depth - 2];
+        Integer value = this.numbers.get(key);
+
+        if (value == null) {
+            value = ++this.count;
+            this.numbers.put(key, value);
+        }
+
+        this.stack[this.depth - 2] = value;
+        this.types[this.depth - 2] = 'f';
+    }
+
+    private int number(String constant) {
+        Integer value = this.numbers.get(constant);
+
+        if (value == null) {
+            value = ++this.count;
+            this.numbers.put(constant, value);
+        }
+
+        return value;
+    }
+
+    private int load(int slot) {
+        return number("load " + slot + " " + (slot < this.versions.length ? this.versions[slot] : 0));
+    }
+
+    // The loads after a store to the variable are other values, after a store to an unknown address all are
+    private void store(int slot) {
+        if (slot < 0) {
+            this.numbers.clear();
+        } else if (slot < this.versions.length) {
+            this.versions[slot]++;
+        }
+
+        // What is left on the stack was computed before the store
+        opaque(this.depth);
+    }
+
+    private void push(int value, int start, char type, int address) {
+        if (this.depth == this.stack.length) {
+            this.stack = Arrays.copyOf(this.stack, this.depth * 2);
+            this.starts = Arrays.copyOf(this.starts, this.depth * 2);
+            this.types = Arrays.copyOf(this.types, this.depth * 2);
+            this.addresses = Arrays.copyOf(this.addresses, this.depth * 2);
+        }
+
+        this.stack[this.depth] = value;
+        this.starts[this.depth] = start;
+        this.types[this.depth] = type;
+        this.addresses[this.depth] = address;
+        this.depth++;
+    }
+
+    // Values from before the code being numbered are unknown, popping them is not an error here
+    private void pop(int n) {
+        this.depth = Math.max(this.depth - n, 0);
+    }
+
+    // Keep the number of values on the stack, but none of their code can be replaced any more
+    private void opaque(int depth) {
+        this.depth = Math.min(this.depth, depth);
+
+        for (int i = 0; i < this.depth; i++) {
+            this.starts[i] = -1;
+        }
+    }
+
+    // A new symbol for a temporary, named so that no identifier can be the same
+    private int temporary(String type) {
+        int slot;
+
+        do {
+            slot = this.symbols.add("$t" + ++this.temporaries, new PrimitiveType(type));
+        } while (slot < 0);
+
+        return slot;
+    }
+
+    // The loads in code that is replaced are gone
+    private void forget(String instruction) {
+        int opcode = Opcode.valueOf(mnemonic(instruction));
+
+        if (opcode == Opcode.ADDRESSOF || opcode == Opcode.ILOADVAR || opcode == Opcode.FLOADVAR) {
+            this.symbols.addUses(slot(instruction), -1);
+        }
+    }
+
+    private static boolean isCommutative(int opcode) {
+        for (int commutative : COMMUTATIVE) {
+            if (opcode == commutative) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static int slot(String instruction) {
+        return Integer.parseInt(operand(instruction));
+    }
+
+    private static String mnemonic(String instruction) {
+        int space = instruction.indexOf(' ');
+
+        return space < 0 ? instruction : instruction.substring(0, space);
+    }
+
+    private static String operand(String instruction) {
+        return instruction.substring(instruction.indexOf(' ') + 1);
+    }
+}
@@ -0,0 +1,219 @@
+package stackmachine.compiler.sprint2;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ *  Cache of compiled code, addressed by the hash of what was compiled (see StackMachineCompiler)
+ *
+ *  Two tiers: the most recently used outputs are kept in memory, and every output is stored in a
+ *  file of the cache directory named by its key. Both tiers are bounded in bytes and drop the least
+ *  recently used outputs first (on disk by the last modified time, which a hit refreshes).
+ *
+ *  Files are written to a temporary file and renamed, so a compile running in parallel sees either
+ *  the whole output or none, and a file evicted by another process is just a miss.
+ *
+ */
+
+public class CompilationCache implements ICompilationCache {
+    private final Path directory;
+    private final long memorySize;
+    private final long diskSize;
+
+    // Access ordered, the eldest entry is the least recently used
+    private final LinkedHashMap<String, byte[]> memory;
+    private long memoryUsed;
+    private final AtomicLong diskUsed;
+
+    private final AtomicLong memoryHits;
+    private final AtomicLong diskHits;
+    private final AtomicLong misses;
+
+    public CompilationCache(String directory) throws Exception {
+        this(directory, 64L * 1024 * 1024, 1024L * 1024 * 1024);
+    }
+
+    public CompilationCache(String directory, long memorySize, long diskSize) throws Exception {
+        this.directory = Paths.get(directory);
+        this.memorySize = memorySize;
+        this.diskSize = diskSize;
+        this.memory = new LinkedHashMap<String, byte[]>(16, 0.75f, true);
+        this.diskUsed = new AtomicLong();
+        this.memoryHits = new AtomicLong();
+        this.diskHits = new AtomicLong();
+        this.misses = new AtomicLong();
+
+        Files.createDirectories(this.directory);
+
+        for (Path file : files()) {
+            this.diskUsed.addAndGet(size(file));
+        }
+    }
+
+    @Override
+    public byte[] get(String key) throws Exception {
+        synchronized (this.memory) {
+            byte[] output = this.memory.get(key);
+
+            if (output != null) {
+                this.memoryHits.incrementAndGet();
+                return output;
+            }
+        }
+
+        Path file = this.directory.resolve(key);
+
+        try {
+
+            byte[] output = Files.readAllBytes(file);
+
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+
+            remember(key, output);
+            this.diskHits.incrementAndGet();
+
+            return output;
+
+        } catch (NoSuchFileException e) {
+            this.misses.incrementAndGet();
+            return null;
+        }
+    }
+
+    @Override
+    public void put(String key, byte[] output) throws Exception {
+        remember(key, output);
+
+        Path file = this.directory.resolve(key);
+        Path temporaryFile = Files.createTempFile(this.directory, key, ".tmp");
+
+        try {
+            Files.write(temporaryFile, output);
+
+            long replaced = size(file);
+
+            Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            if (this.diskUsed.addAndGet(output.length - replaced) > this.diskSize) {
+                evict();
+            }
+        } finally {
+            Files.deleteIfExists(temporaryFile);
+        }
+    }
+
+    @Override
+    public long getHits() {
+        return this.memoryHits.get() + this.diskHits.get();
+    }
+
+    @Override
+    public long getMisses() {
+        return this.misses.get();
+    }
+
+    @Override
+    public String report() {
+        synchronized (this.memory) {
+            return "hits: " + this.memoryHits.get() + " in memory, " + this.diskHits.get() + " on disk\n" +
+                   "misses: " + this.misses.get() + "\n" +
+                   "memory: " + this.memory.size() + " outputs, " + this.memoryUsed + " bytes\n" +
+                   "disk: " + this.diskUsed.get() + " bytes\n";
+        }
+    }
+
+    private void remember(String key, byte[] output) {
+        // An output bigger than a quarter of the memory tier would push out too much to be worth it
+        if (output.length > this.memorySize / 4) {
+            return;
+        }
+
+        synchronized (this.memory) {
+            byte[] replaced = this.memory.put(key, output);
+
+            this.memoryUsed = this.memoryUsed + output.length - (replaced == null ? 0 : replaced.length);
+
+            Iterator<byte[]> eldest = this.memory.values().iterator();
+
+            while (this.memoryUsed > this.memorySize && eldest.hasNext()) {
+                this.memoryUsed = this.memoryUsed - eldest.next().length;
+                eldest.remove();
+            }
+        }
+    }
+
+    // Delete the least recently used files until the disk tier is down to 90% of its size
+    private synchronized void evict() throws IOException {
+        if (this.diskUsed.get() <= this.diskSize) {
+            return;
+        }
+
+        List<Path> files = files();
+        Map<Path, Long> used = new LinkedHashMap<Path, Long>();
+
+        for (Path file : files) {
+            try {
+                used.put(file, Files.getLastModifiedTime(file).toMillis());
+            } catch (NoSuchFileException e) {
+                // Evicted by another process
+            }
+        }
+
+        files = new ArrayList<Path>(used.keySet());
+        files.sort((a, b) -> Long.compare(used.get(a), used.get(b)));
+
+        long total = 0;
+
+        for (Path file : files) {
+            total = total + size(file);
+        }
+
+        for (Path file : files) {
+            if (total <= this.diskSize * 9 / 10) {
+                break;
+            }
+
+            long size = size(file);
+
+            if (Files.deleteIfExists(file)) {
+                total = total - size;
+            }
+        }
+
+        this.diskUsed.set(total);
+    }
+
+    private List<Path> files() throws IOException {
+        List<Path> files = new ArrayList<Path>();
+
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(this.directory)) {
+            for (Path file : stream) {
+                if (!file.getFileName().toString().endsWith(".tmp")) {
+                    files.add(file);
+                }
+            }
+        }
+
+        return files;
+    }
+
+    private static long size(Path file) throws IOException {
+        try {
+            return Files.size(file);
+        } catch (NoSuchFileException e) {
+            return 0;
+        }
+    }
+}
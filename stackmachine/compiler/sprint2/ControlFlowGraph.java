@@ -0,0 +1,339 @@
+package stackmachine.compiler.sprint2;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import stackmachine.vm.Opcode;
+
+/*
+ *  Basic blocks of the intermediate code, in the order of the code, with their jumps and fall-throughs
+ *
+ *  A block starts at a label (or after a jump or halt) and ends before the next label or after a jump
+ *  or halt. Consecutive labels name the same block. The jumps refer to blocks, so a jump is retargeted
+ *  without looking at labels, and toCode() writes the labels that are still the target of a jump.
+ *
+ *     threadJumps()            a jump to a block that only jumps (or only falls through) goes straight to
+ *                              the final target, and a jump to a constant that is tested right away goes
+ *                              where the test goes: L1: ipush 0; L2: iffalse L3 makes a jump to L1 a jump
+ *                              to L3, which is how a condition with && and || stops pushing booleans (a not
+ *                              between the constant and the test is taken into account)
+ *     removeJumpsToNext()      a goto to the next block in the layout
+ *     removeUnreachable()      blocks no path from the first block reaches
+ *
+ */
+
+public class ControlFlowGraph {
+    private final List<BasicBlock> blocks;
+    private final Set<String> labels;
+    private int generated;
+    // Instructions removed by the last call of a transformation
+    private int removed;
+
+    public ControlFlowGraph(IIntermediateCode code) throws Exception {
+        this.blocks = new ArrayList<BasicBlock>();
+        this.labels = new HashSet<String>();
+
+        Map<String, BasicBlock> blocks = new HashMap<String, BasicBlock>();
+        Map<BasicBlock, String> targets = new HashMap<BasicBlock, String>();
+        BasicBlock block = add(null);
+
+        for (String instruction : code.getInstructions()) {
+            if (instruction.endsWith(":")) {
+                String label = instruction.substring(0, instruction.length() - 1);
+
+                // A label starts a block, unless the current one is still empty
+                if (!block.isEmpty() || block.getBranch() != null) {
+                    block = add(label);
+                } else if (block.getLabel() == null) {
+                    block.setLabel(label);
+                }
+
+                blocks.put(label, block);
+                this.labels.add(label);
+                continue;
+            }
+
+            int space = instruction.indexOf(' ');
+            int opcode = Opcode.valueOf(space < 0 ? instruction : instruction.substring(0, space));
+
+            if (opcode >= 0 && Opcode.hasTarget(opcode)) {
+                block.setBranch(instruction.substring(0, space), null);
+                targets.put(block, instruction.substring(space + 1));
+
+                block = add(null);
+            } else {
+                block.getInstructions().add(instruction);
+
+                if (opcode == Opcode.HALT) {
+                    block = add(null);
+                }
+            }
+        }
+
+        for (Map.Entry<BasicBlock, String> target : targets.entrySet()) {
+            BasicBlock to = blocks.get(target.getValue());
+
+            if (to == null) {
+                throw new Exception("\nControl flow: label '" + target.getValue() + "' is not defined");
+            }
+
+            target.getKey().setBranch(target.getKey().getBranch(), to);
+        }
+    }
+
+    public List<BasicBlock> getBlocks() {
+        return this.blocks;
+    }
+
+    // Next block in the layout, where the block falls through to (null after the last one)
+    public BasicBlock next(BasicBlock block) {
+        return block.index + 1 < this.blocks.size() ? this.blocks.get(block.index + 1) : null;
+    }
+
+    public List<BasicBlock> successors(BasicBlock block) {
+        List<BasicBlock> successors = new ArrayList<BasicBlock>(2);
+
+        if (block.getTarget() != null) {
+            successors.add(block.getTarget());
+        }
+
+        if (block.fallsThrough() && next(block) != null) {
+            successors.add(next(block));
+        }
+
+        return successors;
+    }
+
+    // Instructions removed by the last transformation
+    public int getRemoved() {
+        return this.removed;
+    }
+
+    // Returns the number of jumps retargeted (threading through a constant also removes its push)
+    public int threadJumps() {
+        int threaded = 0;
+
+        this.removed = 0;
+
+        for (BasicBlock block : this.blocks) {
+            if (block.getBranch() != null) {
+                BasicBlock target = thread(block.getTarget());
+
+                if (target != block.getTarget()) {
+                    block.setBranch(block.getBranch(), target);
+                    threaded++;
+                }
+            }
+
+            // ipush c; goto L1 ... L1: iftrue L2  ->  goto to where the test of c goes
+            if (!block.isEmpty() && (block.getBranch() == null ? block.fallsThrough() : block.getBranch().equals("goto"))) {
+                BasicBlock exit = block.getBranch() == null ? next(block) : block.getTarget();
+                String last = block.getInstructions().get(block.getInstructions().size() - 1);
+                BasicBlock target = exit == null ? null : test(constant(last), exit);
+
+                if (target != null) {
+                    block.getInstructions().remove(block.getInstructions().size() - 1);
+                    block.setBranch("goto", thread(target));
+
+                    this.removed++;
+                    threaded++;
+                }
+            }
+        }
+
+        return threaded;
+    }
+
+    // Returns the number of jumps removed
+    public int removeJumpsToNext() {
+        int removed = 0;
+
+        for (BasicBlock block : this.blocks) {
+            if ("goto".equals(block.getBranch()) && block.getTarget() == next(block)) {
+                block.setBranch(null, null);
+                removed++;
+            }
+        }
+
+        this.removed = removed;
+
+        return removed;
+    }
+
+    // Returns the number of blocks removed
+    public int removeUnreachable() {
+        Set<BasicBlock> reached = new HashSet<BasicBlock>();
+        Deque<BasicBlock> work = new ArrayDeque<BasicBlock>();
+
+        work.push(this.blocks.get(0));
+        reached.add(this.blocks.get(0));
+
+        while (!work.isEmpty()) {
+            for (BasicBlock successor : successors(work.pop())) {
+                if (reached.add(successor)) {
+                    work.push(successor);
+                }
+            }
+        }
+
+        int count = this.blocks.size();
+
+        this.removed = 0;
+
+        for (BasicBlock block : this.blocks) {
+            if (!reached.contains(block)) {
+                this.removed = this.removed + block.size();
+            }
+        }
+
+        this.blocks.retainAll(reached);
+
+        renumber();
+
+        return count - this.blocks.size();
+    }
+
+    public IIntermediateCode toCode() throws Exception {
+        Set<BasicBlock> targets = new HashSet<BasicBlock>();
+
+        for (BasicBlock block : this.blocks) {
+            if (block.getTarget() != null) {
+                targets.add(block.getTarget());
+            }
+        }
+
+        IIntermediateCode code = new IntermediateCode();
+
+        for (BasicBlock block : this.blocks) {
+            if (targets.contains(block)) {
+                code.generate(label(block) + ":");
+            }
+
+            for (String instruction : block.getInstructions()) {
+                code.generate(instruction);
+            }
+
+            if (block.getBranch() != null) {
+                code.generate(block.getBranch() + " " + label(block.getTarget()));
+            }
+        }
+
+        return code;
+    }
+
+    // Final target of a jump to the block: past blocks that only jump or fall through, and past a constant tested right away
+    private BasicBlock thread(BasicBlock target) {
+        // A loop of jumps (while (true) { }) ends after going once around
+        for (int steps = 0; steps < this.blocks.size(); steps++) {
+            target = skip(target);
+
+            if (target.getInstructions().size() != 1) {
+                return target;
+            }
+
+            String constant = constant(target.getInstructions().get(0));
+            BasicBlock next = target.getBranch() == null ? test(constant, next(target)) : outcome(constant, target);
+
+            if (next == null || next == target) {
+                return target;
+            }
+
+            target = next;
+        }
+
+        return target;
+    }
+
+    // First block from this one on that does something, past the empty blocks that only jump or fall through
+    private BasicBlock skip(BasicBlock block) {
+        for (int steps = 0; steps < this.blocks.size() && block.isEmpty(); steps++) {
+            BasicBlock next = "goto".equals(block.getBranch()) ? block.getTarget() : block.getBranch() == null ? next(block) : null;
+
+            if (next == null) {
+                break;
+            }
+
+            block = next;
+        }
+
+        return block;
+    }
+
+    // Where the test of the constant at the end of a block goes if the block goes on to an empty one ending with iftrue
+    // or iffalse (through blocks with just not, from !(a && b)), null if the constant is not tested right away
+    private BasicBlock test(String constant, BasicBlock block) {
+        for (int steps = 0; constant != null && block != null && steps < this.blocks.size(); steps++) {
+            block = skip(block);
+
+            if (block.isEmpty()) {
+                return outcome(constant, block);
+            }
+
+            if (block.getInstructions().size() != 1 || !block.getInstructions().get(0).equals("not")) {
+                return null;
+            }
+
+            constant = constant.equals("0") ? "1" : "0";
+
+            if (block.getBranch() == null) {
+                block = next(block);
+            } else if (block.getBranch().equals("goto")) {
+                block = block.getTarget();
+            } else {
+                return outcome(constant, block);
+            }
+        }
+
+        return null;
+    }
+
+    private BasicBlock outcome(String constant, BasicBlock block) {
+        if (constant != null && ("iftrue".equals(block.getBranch()) || "iffalse".equals(block.getBranch()))) {
+            boolean taken = !constant.equals("0") == block.getBranch().equals("iftrue");
+
+            return taken ? block.getTarget() : next(block);
+        }
+
+        return null;
+    }
+
+    // The constant of an ipush, null for another instruction
+    private static String constant(String instruction) {
+        return instruction.startsWith("ipush ") ? instruction.substring(6) : null;
+    }
+
+    // A block that becomes the target of a jump gets a label if it has none
+    private String label(BasicBlock block) {
+        if (block.getLabel() == null) {
+            String label;
+
+            do {
+                label = "L" + ++this.generated;
+            } while (!this.labels.add(label));
+
+            block.setLabel(label);
+        }
+
+        return block.getLabel();
+    }
+
+    private BasicBlock add(String label) {
+        BasicBlock block = new BasicBlock(label);
+
+        block.index = this.blocks.size();
+        this.blocks.add(block);
+
+        return block;
+    }
+
+    private void renumber() {
+        for (int i = 0; i < this.blocks.size(); i++) {
+            this.blocks.get(i).index = i;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package stackmachine.compiler.sprint2;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import stackmachine.compiler.ISymbolTable;
+
+/*
+ *  Optimizer of the jumps of the code generated by the Parser, over its ControlFlowGraph
+ *
+ *     jump-threading      a jump through jumps or through a constant tested right away goes to the final target
+ *     jump-to-next        a goto to the next block is removed
+ *     unreachable-code    blocks no path reaches are removed
+ *
+ *  The rules are applied until none of them changes the graph, each one enables the others: threading
+ *  leaves gotos to the next block and blocks nothing jumps to any more.
+ *
+ */
+
+public class ControlFlowOptimizer implements IOptimizer {
+    // Times each rule applied (jumps retargeted or removed, blocks removed) and instructions it removed
+    private Map<String, Integer> removed;
+    private Map<String, Integer> applied;
+
+    public ControlFlowOptimizer() {
+        this.removed = new LinkedHashMap<String, Integer>();
+        this.applied = new LinkedHashMap<String, Integer>();
+
+        for (String rule : new String[] { "jump-threading", "jump-to-next", "unreachable-code" }) {
+            this.removed.put(rule, 0);
+            this.applied.put(rule, 0);
+        }
+    }
+
+    @Override
+    public IIntermediateCode optimize(IIntermediateCode code, ISymbolTable symbols) throws Exception {
+        ControlFlowGraph graph = new ControlFlowGraph(code);
+
+        while (count(graph, "jump-threading", graph.threadJumps()) | count(graph, "jump-to-next", graph.removeJumpsToNext()) | count(graph, "unreachable-code", graph.removeUnreachable()));
+
+        return graph.toCode();
+    }
+
+    @Override
+    public String getId() {
+        return "control-flow";
+    }
+
+    @Override
+    public String report() {
+        String report = "";
+
+        for (Map.Entry<String, Integer> rule : this.removed.entrySet()) {
+            report = report + rule.getKey() + ": applied " + this.applied.get(rule.getKey()) + " times, " + rule.getValue() + " instructions removed\n";
+        }
+
+        return report;
+    }
+
+    public int getRemoved(String rule) {
+        return this.removed.get(rule);
+    }
+
+    // Returns true if the rule changed the graph
+    private boolean count(ControlFlowGraph graph, String rule, int applied) {
+        this.applied.put(rule, this.applied.get(rule) + applied);
+        this.removed.put(rule, this.removed.get(rule) + graph.getRemoved());
+
+        return applied > 0;
+    }
+}
@@ -0,0 +1,462 @@
+package stackmachine.compiler.sprint2;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import stackmachine.compiler.ISymbolTable;
+import stackmachine.vm.Opcode;
+
+/*
+ *  Dead-store and unused-variable elimination, with the loads and stores counted on the symbols
+ *
+ *     dead-store          a store whose value is never loaded is removed with the code of its value
+ *                         addressof x; <value>; istore  or  <value>; istorevar x   ->  (nothing)
+ *     unused-variable     a variable that is neither loaded nor stored any more is removed from the
+ *                         symbol table, the others are renumbered in order (the code follows)
+ *
+ *  A value is loaded if a load of its variable is reached from the store by some path that does not
+ *  store the variable again (liveness over the basic blocks of the code). At the end of the program
+ *  the variables loaded somewhere are live: the memory of a program is the variables it reads, they
+ *  keep their last value and a variable that is never loaded has no live store at all.
+ *
+ *  Removing a store removes the loads in the code of its value, which can leave other stores dead, so
+ *  the analysis runs again until it removes nothing. The code of a value is only removed when it cannot
+ *  fail (an int division or remainder by anything but a nonzero constant can) and has no jump (the value
+ *  of && and ||), otherwise the store stays, and so do all the other stores to its variable: removing
+ *  them would leave it with the value of the kept one instead of its last value.
+ *
+ */
+
+public class DeadStoreOptimizer implements IOptimizer {
+    // What each instruction does to a variable
+    private static final int OTHER = 0;
+    private static final int LOAD  = 1;
+    private static final int STORE = 2;
+
+    private Map<String, Integer> removed;
+    private Map<String, Integer> applied;
+
+    private List<String> code;
+    private ISymbolTable symbols;
+    // By instruction: LOAD, STORE or OTHER, the slot, the first instruction of a store with its value
+    // (-1 if it cannot be removed) and whether it was removed
+    private int[] kinds;
+    private int[] slots;
+    private int[] starts;
+    private boolean[] dead;
+    // Basic blocks: first instruction, end (exclusive) and successors
+    private int[] blockStarts;
+    private int[] blockEnds;
+    private int[][] successors;
+
+    public DeadStoreOptimizer() {
+        this.removed = new LinkedHashMap<String, Integer>();
+        this.applied = new LinkedHashMap<String, Integer>();
+
+        for (String rule : new String[] { "dead-store", "unused-variable" }) {
+            this.removed.put(rule, 0);
+            this.applied.put(rule, 0);
+        }
+    }
+
+    @Override
+    public IIntermediateCode optimize(IIntermediateCode code, ISymbolTable symbols) throws Exception {
+        this.code = code.getInstructions();
+        this.symbols = symbols;
+
+        analyze();
+        blocks();
+
+        while (removeDeadStores());
+
+        int[] slots = symbols.removeUnused();
+        IIntermediateCode optimized = new IntermediateCode();
+
+        for (int slot : slots) {
+            if (slot < 0) {
+                this.applied.put("unused-variable", this.applied.get("unused-variable") + 1);
+            }
+        }
+
+        for (int i = 0; i < this.code.size(); i++) {
+            if (this.dead[i]) {
+                continue;
+            }
+
+            String instruction = this.code.get(i);
+            int opcode = Opcode.valueOf(mnemonic(instruction));
+
+            if (opcode >= 0 && Opcode.hasSlot(opcode)) {
+                int slot = slots[Integer.parseInt(operand(instruction))];
+
+                if (slot < 0) {
+                    throw new Exception("\nOptimizer: '" + instruction + "' refers to a variable with no loads and no stores");
+                }
+
+                instruction = Opcode.mnemonic(opcode) + " " + slot;
+            }
+
+            optimized.generate(instruction);
+        }
+
+        this.code = null;
+
+        return optimized;
+    }
+
+    @Override
+    public String getId() {
+        return "dead-store";
+    }
+
+    @Override
+    public String report() {
+        String report = "";
+
+        for (Map.Entry<String, Integer> rule : this.removed.entrySet()) {
+            report = report + rule.getKey() + ": applied " + this.applied.get(rule.getKey()) + " times, " + rule.getValue() + " instructions removed\n";
+        }
+
+        return report;
+    }
+
+    public int getRemoved(String rule) {
+        return this.removed.get(rule);
+    }
+
+    // Find the loads and the stores, and the code of the value of each store
+    private void analyze() {
+        int size = this.code.size();
+
+        this.kinds = new int[size];
+        this.slots = new int[size];
+        this.starts = new int[size];
+        this.dead = new boolean[size];
+
+        int[] addresses = storeSlots();
+        BitSet kept = new BitSet();
+        boolean unknown = false;
+
+        for (int i = 0; i < size; i++) {
+            String instruction = this.code.get(i);
+            int opcode = Opcode.valueOf(mnemonic(instruction));
+
+            switch (opcode) {
+                case Opcode.ILOADVAR:
+                case Opcode.FLOADVAR:
+                    this.kinds[i] = LOAD;
+                    this.slots[i] = Integer.parseInt(operand(instruction));
+                    break;
+
+                case Opcode.ADDRESSOF:
+                    // addressof x; iload is a load, otherwise the address is the one of a store
+                    if (i + 1 < size && (this.code.get(i + 1).equals("iload") || this.code.get(i + 1).equals("fload"))) {
+                        this.kinds[i] = LOAD;
+                        this.slots[i] = Integer.parseInt(operand(instruction));
+                    }
+                    break;
+
+                case Opcode.ISTOREVAR:
+                case Opcode.FSTOREVAR:
+                    this.kinds[i] = STORE;
+                    this.slots[i] = Integer.parseInt(operand(instruction));
+                    this.starts[i] = removable(value(i, 1), i);
+                    break;
+
+                case Opcode.ISTORE:
+                case Opcode.FSTORE:
+                    // Without its address the variable is not known, the store is then left alone
+                    if (addresses[i] >= 0) {
+                        this.kinds[i] = STORE;
+                        this.slots[i] = addresses[i];
+                        this.starts[i] = removable(value(i, 2), i);
+                    } else {
+                        unknown = true;
+                    }
+                    break;
+            }
+
+            if (this.kinds[i] == STORE && this.starts[i] < 0) {
+                kept.set(this.slots[i]);
+            }
+        }
+
+        // A store that stays keeps the other stores to its variable (all of them if its variable is not known)
+        for (int i = 0; i < size; i++) {
+            if (this.kinds[i] == STORE && (unknown || kept.get(this.slots[i]))) {
+                this.starts[i] = -1;
+            }
+        }
+    }
+
+    // The variable of each istore and fstore, from the addresses on the stack as the code runs through
+    // (-1 if it is not known). Code after goto or halt starts with the stack of the first jump to its label
+    private int[] storeSlots() {
+        int size = this.code.size();
+        int[] stores = new int[size];
+        int[] stack = new int[size + 1];
+        int depth = 0;
+        boolean reachable = true;
+        Map<String, int[]> labels = new HashMap<String, int[]>();
+
+        Arrays.fill(stores, -1);
+
+        for (int i = 0; i < size; i++) {
+            String instruction = this.code.get(i);
+
+            if (instruction.endsWith(":")) {
+                if (!reachable) {
+                    int[] entry = labels.getOrDefault(instruction.substring(0, instruction.length() - 1), new int[0]);
+
+                    System.arraycopy(entry, 0, stack, 0, entry.length);
+                    depth = entry.length;
+                    reachable = true;
+                }
+                continue;
+            }
+
+            int opcode = Opcode.valueOf(mnemonic(instruction));
+
+            if (opcode < 0) {
+                continue;
+            }
+
+            if ((opcode == Opcode.ISTORE || opcode == Opcode.FSTORE) && depth >= 2) {
+                stores[i] = stack[depth - 2];
+            }
+
+            depth = Math.max(0, depth + Opcode.stackEffect(opcode));
+
+            // Whatever else an instruction pushes is a value, not an address
+            if (opcode == Opcode.ADDRESSOF) {
+                stack[depth - 1] = Integer.parseInt(operand(instruction));
+            } else if (depth > 0 && !isStore(opcode) && !Opcode.hasTarget(opcode) && opcode != Opcode.HALT) {
+                stack[depth - 1] = -1;
+            }
+
+            if (Opcode.hasTarget(opcode)) {
+                labels.putIfAbsent(operand(instruction), Arrays.copyOf(stack, depth));
+            }
+
+            if (opcode == Opcode.GOTO || opcode == Opcode.HALT) {
+                reachable = false;
+            }
+        }
+
+        return stores;
+    }
+
+    // Walk back from the store adding the stack effects: the value starts where the sum first reaches 1,
+    // and the address is pushed by the instruction where it first reaches 2. Returns -1 at a label, a
+    // jump or another store
+    private int value(int store, int depth) {
+        int sum = 0;
+
+        for (int i = store - 1; i >= 0; i--) {
+            int opcode = Opcode.valueOf(mnemonic(this.code.get(i)));
+
+            if (opcode < 0 || opcode == Opcode.HALT || Opcode.hasTarget(opcode) || isStore(opcode)) {
+                return -1;
+            }
+
+            sum = sum + Opcode.stackEffect(opcode);
+
+            if (sum == depth) {
+                return depth == 1 || opcode == Opcode.ADDRESSOF ? i : -1;
+            }
+        }
+
+        return -1;
+    }
+
+    // Returns start if the code from there to the store can be removed, -1 if it can fail
+    private int removable(int start, int store) {
+        if (start < 0) {
+            return -1;
+        }
+
+        for (int i = start; i < store; i++) {
+            String instruction = this.code.get(i);
+
+            if (instruction.equals("idiv") || instruction.equals("irem")) {
+                String divisor = this.code.get(i - 1);
+
+                if (!divisor.startsWith("ipush ") || Integer.parseInt(operand(divisor)) == 0) {
+                    return -1;
+                }
+            }
+        }
+
+        return start;
+    }
+
+    // A label starts a block, a jump or halt ends one
+    private void blocks() {
+        int size = this.code.size();
+        int[] blocks = new int[size + 1];
+        Map<String, Integer> labels = new HashMap<String, Integer>();
+        int count = 0;
+
+        for (int i = 0; i < size; i++) {
+            String instruction = this.code.get(i);
+            boolean label = instruction.endsWith(":");
+
+            if (i == 0 || (label && !this.code.get(i - 1).endsWith(":")) || endsBlock(this.code.get(i - 1))) {
+                count++;
+            }
+
+            blocks[i] = count - 1;
+
+            if (label) {
+                labels.put(instruction.substring(0, instruction.length() - 1), count - 1);
+            }
+        }
+
+        this.blockStarts = new int[count];
+        this.blockEnds = new int[count];
+        this.successors = new int[count][];
+
+        for (int i = size - 1; i >= 0; i--) {
+            this.blockStarts[blocks[i]] = i;
+
+            if (i == size - 1 || blocks[i + 1] != blocks[i]) {
+                this.blockEnds[blocks[i]] = i + 1;
+            }
+        }
+
+        for (int block = 0; block < count; block++) {
+            String last = this.code.get(this.blockEnds[block] - 1);
+            int opcode = Opcode.valueOf(mnemonic(last));
+            boolean next = opcode != Opcode.HALT && opcode != Opcode.GOTO && block + 1 < count;
+
+            if (opcode >= 0 && Opcode.hasTarget(opcode)) {
+                int target = labels.get(operand(last));
+
+                this.successors[block] = next ? new int[] { target, block + 1 } : new int[] { target };
+            } else {
+                this.successors[block] = next ? new int[] { block + 1 } : new int[0];
+            }
+        }
+    }
+
+    // One round of liveness and removal, returns true if a store was removed
+    private boolean removeDeadStores() {
+        int blocks = this.blockStarts.length;
+        BitSet exit = new BitSet();
+        BitSet[] in = new BitSet[blocks];
+
+        for (int slot = 0; slot < this.symbols.size(); slot++) {
+            if (this.symbols.getUses(slot) > 0) {
+                exit.set(slot);
+            }
+        }
+
+        for (int block = 0; block < blocks; block++) {
+            in[block] = new BitSet();
+        }
+
+        // The sets only grow, so this ends with the variables live at the start of each block
+        boolean changed = true;
+
+        while (changed) {
+            changed = false;
+
+            for (int block = blocks - 1; block >= 0; block--) {
+                BitSet live = out(block, in, exit);
+
+                walk(block, live, false);
+
+                if (!live.equals(in[block])) {
+                    in[block] = live;
+                    changed = true;
+                }
+            }
+        }
+
+        int applied = this.applied.get("dead-store");
+
+        for (int block = 0; block < blocks; block++) {
+            walk(block, out(block, in, exit), true);
+        }
+
+        return this.applied.get("dead-store") > applied;
+    }
+
+    private BitSet out(int block, BitSet[] in, BitSet exit) {
+        if (this.successors[block].length == 0) {
+            return (BitSet) exit.clone();
+        }
+
+        BitSet live = new BitSet();
+
+        for (int successor : this.successors[block]) {
+            live.or(in[successor]);
+        }
+
+        return live;
+    }
+
+    // Go back through the block from the variables live at its end to the ones live at its start. A dead
+    // store does not read its value, so the loads in it do not count (and are removed with it)
+    private void walk(int block, BitSet live, boolean remove) {
+        for (int i = this.blockEnds[block] - 1; i >= this.blockStarts[block]; i--) {
+            if (this.dead[i]) {
+                continue;
+            }
+
+            if (this.kinds[i] == LOAD) {
+                live.set(this.slots[i]);
+            } else if (this.kinds[i] == STORE) {
+                if (!live.get(this.slots[i]) && this.starts[i] >= 0) {
+                    if (remove) {
+                        removeStore(i);
+                    }
+
+                    i = this.starts[i];
+                } else {
+                    live.clear(this.slots[i]);
+                }
+            }
+        }
+    }
+
+    private void removeStore(int store) {
+        int start = this.starts[store];
+
+        for (int i = start; i <= store; i++) {
+            this.dead[i] = true;
+
+            if (this.kinds[i] == LOAD) {
+                this.symbols.addUses(this.slots[i], -1);
+            }
+        }
+
+        this.symbols.addDefinitions(this.slots[store], -1);
+
+        this.applied.put("dead-store", this.applied.get("dead-store") + 1);
+        this.removed.put("dead-store", this.removed.get("dead-store") + store - start + 1);
+    }
+
+    private static boolean endsBlock(String instruction) {
+        int opcode = Opcode.valueOf(mnemonic(instruction));
+
+        return opcode >= 0 && (Opcode.hasTarget(opcode) || opcode == Opcode.HALT);
+    }
+
+    private static boolean isStore(int opcode) {
+        return opcode == Opcode.ISTORE || opcode == Opcode.FSTORE || opcode == Opcode.ISTOREVAR || opcode == Opcode.FSTOREVAR;
+    }
+
+    private static String mnemonic(String instruction) {
+        int space = instruction.indexOf(' ');
+
+        return space < 0 ? instruction : instruction.substring(0, space);
+    }
+
+    private static String operand(String instruction) {
+        return instruction.substring(instruction.indexOf(' ') + 1);
+    }
+}
@@ -0,0 +1,11 @@
+package stackmachine.compiler.sprint2;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+public interface IBatchCompiler {
+
+    public List<BatchResult> compile(List<String> programs) throws Exception;
+    public void compile(List<String> programs, Consumer<BatchResult> results) throws Exception;
+
+}
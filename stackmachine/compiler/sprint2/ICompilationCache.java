@@ -0,0 +1,11 @@
+package stackmachine.compiler.sprint2;
+
+public interface ICompilationCache {
+
+    public byte[] get(String key) throws Exception;
+    public void put(String key, byte[] output) throws Exception;
+    public long getHits();
+    public long getMisses();
+    public String report();
+
+}
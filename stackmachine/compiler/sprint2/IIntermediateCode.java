@@ -1,8 +1,17 @@
 package stackmachine.compiler.sprint2;
 
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.channels.WritableByteChannel;
+import java.util.List;
+
 public interface IIntermediateCode {
 
-    public void generate(String code);
+    public void generate(String code) throws IOException;
+    public void flush() throws IOException;
+    public List<String> getInstructions();
+    public void writeTo(Writer output) throws IOException;
+    public void writeTo(WritableByteChannel output) throws IOException;
     public String toString();
     
-}
\ No newline at end of file
+}
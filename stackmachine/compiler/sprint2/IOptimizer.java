@@ -0,0 +1,11 @@
+package stackmachine.compiler.sprint2;
+
+import stackmachine.compiler.ISymbolTable;
+
+public interface IOptimizer {
+
+    public IIntermediateCode optimize(IIntermediateCode code, ISymbolTable symbols) throws Exception;
+    public String report();
+    public String getId();
+
+}
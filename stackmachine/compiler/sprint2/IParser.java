@@ -1,7 +1,14 @@
 package stackmachine.compiler.sprint2;
 
+import java.io.Writer;
+import stackmachine.compiler.ISymbolTable;
+
 public interface IParser {
 
+    public void parse() throws Exception;
     public String compile() throws Exception;
+    public void compile(Writer output) throws Exception;
+    public ISymbolTable getSymbols();
+    public int getMaxDepth();
     
 }
\ No newline at end of file
@@ -3,5 +3,6 @@ package stackmachine.compiler.sprint2;
 public interface IStackMachineCompiler {
 
     public void compile(String program, String fileName) throws Exception;
+    public void compileToBytecode(String program, String fileName) throws Exception;
     
 }
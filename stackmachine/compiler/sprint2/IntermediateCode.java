@@ -1,28 +1,92 @@
 package stackmachine.compiler.sprint2;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 public class IntermediateCode implements IIntermediateCode {
+    // Number of instructions kept in memory before they are written to the output (streaming mode)
+    private static final int CHUNK_SIZE = 4096;
+
     private List<String> code;
+    private Writer output;
     
     public IntermediateCode() {
         this.code = new ArrayList<String>();
     }
+
+    // Streaming mode: instructions are written to the output in bounded chunks as they are generated
+    public IntermediateCode(Writer output) {
+        this();
+        this.output = output;
+    }
+
+    public IntermediateCode(WritableByteChannel output) {
+        this(new BufferedWriter(Channels.newWriter(output, StandardCharsets.UTF_8)));
+    }
     
     @Override
-    public void generate(String code) {
+    public void generate(String code) throws IOException {
         this.code.add(code);
+
+        if (this.output != null && this.code.size() >= CHUNK_SIZE) {
+            flush();
+        }
+    }
+
+    // Write the pending chunk to the output (streaming mode only)
+    @Override
+    public void flush() throws IOException {
+        if (this.output != null) {
+            writeTo(this.output);
+            this.output.flush();
+            this.code.clear();
+        }
+    }
+
+    // Instructions kept in memory (in streaming mode only the pending chunk)
+    @Override
+    public List<String> getInstructions() {
+        return Collections.unmodifiableList(this.code);
+    }
+
+    @Override
+    public void writeTo(Writer output) throws IOException {
+        for (String instruction : this.code) {
+            output.write(instruction);
+            output.write('\n');
+        }
+    }
+
+    @Override
+    public void writeTo(WritableByteChannel output) throws IOException {
+        // The channel is left open, only the encoder buffer is flushed
+        Writer writer = new BufferedWriter(Channels.newWriter(output, StandardCharsets.UTF_8));
+
+        writeTo(writer);
+        writer.flush();
     }
 
     @Override
     public String toString() {
-        String code = "";
+        int length = 0;
+
+        for (String instruction : this.code) {
+            length = length + instruction.length() + 1;
+        }
+
+        StringBuilder code = new StringBuilder(length);
         
         for (String instruction : this.code) {
-            code = code + instruction + "\n";
+            code.append(instruction).append('\n');
         }
         
-        return code;
+        return code.toString();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,59 @@
+package stackmachine.compiler.sprint2;
+
+import stackmachine.compiler.ISymbolTable;
+
+/*
+ *  Optimizers run one after the other, each on the code of the previous one
+ *
+ *  standard() is what -O means for the compilers. The dead stores go first, while the counts of loads
+ *  and stores on the symbols are those of the parser, then the jumps, so the peephole optimizer sees
+ *  the comparisons next to the jumps that test them, and the common subexpressions last, when a load
+ *  is one instruction and the constants are folded. An optimizer can remove variables from the symbol
+ *  table, the code after it refers to the renumbered slots.
+ *
+ */
+
+public class OptimizerPipeline implements IOptimizer {
+    private final IOptimizer[] optimizers;
+
+    public OptimizerPipeline(IOptimizer... optimizers) {
+        this.optimizers = optimizers;
+    }
+
+    public static IOptimizer standard() {
+        return new OptimizerPipeline(new DeadStoreOptimizer(), new ControlFlowOptimizer(), new PeepholeOptimizer(),
+                                     new CommonSubexpressionOptimizer());
+    }
+
+    @Override
+    public IIntermediateCode optimize(IIntermediateCode code, ISymbolTable symbols) throws Exception {
+        for (IOptimizer optimizer : this.optimizers) {
+            code = optimizer.optimize(code, symbols);
+        }
+
+        return code;
+    }
+
+    // The ids of the optimizers in their order, so each pipeline has its own cached outputs
+    @Override
+    public String getId() {
+        String id = "";
+
+        for (IOptimizer optimizer : this.optimizers) {
+            id = id + (id.isEmpty() ? "" : "+") + optimizer.getId();
+        }
+
+        return id;
+    }
+
+    @Override
+    public String report() {
+        String report = "";
+
+        for (IOptimizer optimizer : this.optimizers) {
+            report = report + optimizer.report();
+        }
+
+        return report;
+    }
+}
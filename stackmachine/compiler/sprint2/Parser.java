@@ -1,9 +1,11 @@
 package stackmachine.compiler.sprint2;
 
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Set;
+import java.io.Writer;
+import java.util.Arrays;
+import lexer.TokenKind;
 import slu.compiler.*;
+import stackmachine.compiler.ISymbolTable;
+import stackmachine.compiler.SymbolTable;
 
 /* 
  *  Syntax-directed definition for declaration of variables (Sprint 2)
@@ -30,7 +32,7 @@ import slu.compiler.*;
  *                                  more-identifiers |
  *                                  epsilon
  *                           
- *     assignment-declaration   ->  = { generateCode("addressof " + id.lexeme) } expression { generateCode("store") } |
+ *     assignment-declaration   ->  = { generateCode("addressof " + id.slot) } expression { generateCode("store") } |
  *                                  epsilon                     
  *  
  *  Syntax-directed definition for arithmetic expressions (Sprint 2)
@@ -41,7 +43,7 @@ import slu.compiler.*;
  *     statement                ->  declaration     |
  *                                  id assignment-expression ;
  *                              
- *     assignment-expression    ->  = { generateCode("addressof " + id.lexeme) } arithmetic-expression { generateCode("store") }
+ *     assignment-expression    ->  = { generateCode("addressof " + id.slot) } arithmetic-expression { generateCode("store") }
  *     
  *     arithmetic-expression    ->  arithmetic-expression + arithmetic-term { generateCode("+") } |
  *                                  arithmetic-expression - arithmetic-term { generateCode("-") } |
@@ -53,10 +55,10 @@ import slu.compiler.*;
  *                                  arithmetic-factor
  *                  
  *     arithmetic-factor        ->  (arithmetic-expression)                                      |
- *                                  id  { generateCode("addressof " + id.lexeme); generateCode("load") } |
+ *                                  id  { generateCode("addressof " + id.slot); generateCode("load") } |
  *                                  num { generateCode("push " + num.value) }
  *                  
- *  Right-recursive SDD for arithmetic expressions (Sprint 2)
+ *  Expressions by precedence climbing
  *
  *     statements               ->  statement statements |
  *                                  epsilon
@@ -65,69 +67,246 @@ import slu.compiler.*;
  *                                  id assignment-expression ; |
  *                                  print(print-arguments)
  *                              
- *     assignment-expression    ->  id = { generateCode("addressof " + id.lexeme) } arithmetic-expression { generateCode("store") }
+ *     assignment-expression    ->  id = { generateCode("addressof " + id.slot) } expression { generateCode(id.type + "store") }
  *
- *     arithmetic-expression    ->  arithmetic-term more-arithmetic-terms
- *     
- *     more-arithmetic-terms    ->  + arithmetic-term { generateCode("+") } more-arithmetic-terms |
- *                                  - arithmetic-term { generateCode("-") } more-arithmetic-terms |
- *                                  epsilon
- *               
- *     arithmetic-term          ->  arithmetic-factor more-arithmetic-factors
- *     
- *     more-arithmetic-factors  ->  * arithmetic-factor { generateCode("*") } more-arithmetic-factors |
- *                                  / arithmetic-factor { generateCode("/") } more-arithmetic-factors |
- *                                  % arithmetic-factor { generateCode("%") } more-arithmetic-factors |
- *                                  epsilon
- *                    
- *     arithmetic-factor        ->  (arithmetic-expression) |
- *                                   id  { generateCode("addressof " + id.lexeme); generateCode("load") } |
- *                                   num { generateCode("push " + num.value) }
+ *     expression               ->  expression op expression { generateCode(op.type + op) } |
+ *                                  ! expression { generateCode("not") } |
+ *                                  factor
+ *
+ *     factor                   ->  (expression) |
+ *                                  id  { generateCode("addressof " + id.slot); generateCode(id.type + "load") } |
+ *                                  num { generateCode("ipush " + num.value) } |
+ *                                  real { generateCode("fpush " + real.value) } |
+ *                                  true { generateCode("ipush 1") } |
+ *                                  false { generateCode("ipush 0") }
+ *
+ *     The ambiguity is resolved by the precedence table (binary operators are left associative):
+ *
+ *         !                        7
+ *         *  /  %                  6
+ *         +  -                     5
+ *         <  <=  >  >=             4
+ *         ==  !=                   3
+ *         &&                       2
+ *         ||                       1
+ *
+ *     Relational and logical operators give 1 (true) or 0 (false). The right operand of && and || is
+ *     evaluated only if the left one does not decide the result:
+ *
+ *         a && b                   a; iffalse L1; b; goto L2; L1: ipush 0; L2:
+ *         a || b                   a; iftrue L1; b; goto L2; L1: ipush 1; L2:
+ *
+ *     with a constant left operand the code of the right one is not generated at all (false && b) or
+ *     the left one disappears (true && b). In a condition the control-flow optimizer threads the jumps
+ *     through the constant, so the boolean is never pushed.
+ *
+ *  Control flow
+ *
+ *     statement                ->  ... |
+ *                                  if ( condition ) statement [else statement] |
+ *                                  while ( condition ) statement |
+ *                                  do statement while ( condition ) ; |
+ *                                  for ( [assignment-expression] ; [condition] ; [assignment-expression] ) statement |
+ *                                  { statements }
+ *
+ *     condition                ->  expression (of type boolean)
+ *
+ *     if                           condition; iffalse L1; statement; goto L2; L1: statement; L2:
+ *     while                        goto L2; L1: statement; L2: condition; iftrue L1
+ *     do                           L1: statement; condition; iftrue L1
+ *     for                          assignment; goto L2; L1: statement; assignment; L2: condition; iftrue L1
+ *
+ *     The condition of a loop is tested at the bottom, so every iteration runs one jump. It is parsed
+ *     before the body, into its own code, and generated after it. A constant condition generates no
+ *     test, and a statement that never runs is checked but not generated. An else belongs to the
+ *     nearest if.
+ *
+ *  Types
+ *
+ *     Every expression synthesizes the attribute type (the tag of the symbol table), checked here so the
+ *     machine never has to: arithmetic and relational operators take int and float, an int operand of a
+ *     float operation is converted (i2f on top of the stack, i2f.1 below it), equality also compares two
+ *     booleans, and the logical operators only take booleans. The instruction gets the prefix i or f of
+ *     the type of its operands. An int can be assigned to a float variable, any other mismatch is an error.
+ *  
+ *  Constant folding
+ *
+ *     Every expression synthesizes the attribute constant. The push of a num is delayed (pending) until
+ *     an instruction is generated, so when both operands of an operator are constant the two pending
+ *     values are replaced by the result and the whole subexpression produces a single push.
  *  
  */
 
 public class Parser implements IParser {
+    private static final long FIRST_DECLARATION = TokenKind.mask(TokenKind.INT, TokenKind.FLOAT, TokenKind.BOOLEAN);
+    private static final long FIRST_STATEMENT = TokenKind.mask(TokenKind.INT, TokenKind.FLOAT, TokenKind.BOOLEAN, TokenKind.ID,
+                                                                TokenKind.IF, TokenKind.WHILE, TokenKind.DO, TokenKind.FOR, TokenKind.OPEN_CURLY_BRACKET);
+
+    public static final int DEFAULT_NESTING_LIMIT = 100000;
+    // Statements are parsed by recursion, so their nesting has a smaller limit than the one of expressions
+    public static final int STATEMENT_NESTING_LIMIT = 1000;
+
+    // Short circuit of && and || with a constant left operand: it is neutral (true &&, false ||) or decides the result
+    private static final int NEUTRAL = -1;
+    private static final int DECIDED = -2;
+
+    // Categories of operators, for the types of their operands and result
+    private static final int ARITHMETIC = 1;
+    private static final int RELATIONAL = 2;
+    private static final int EQUALITY   = 3;
+    private static final int LOGICAL    = 4;
+
+    // Names of the type tags of the symbol table
+    private static final String[] TYPES = { "int", "float", "boolean", "other" };
+
+    // Operators by token kind: the operation (the instruction without its type prefix), the category, the
+    // precedence as a binary operator and as a prefix operator (0 if the token is not one). A new operator
+    // is a new row here and its instructions in the machine.
+    private static final String[] OPERATORS = new String[TokenKind.count()];
+    private static final int[] CATEGORY = new int[TokenKind.count()];
+    private static final int[] PRECEDENCE = new int[TokenKind.count()];
+    private static final int[] PREFIX = new int[TokenKind.count()];
+
+    static {
+        operator(TokenKind.OR,               "or",  LOGICAL,    1);
+        operator(TokenKind.AND,              "and", LOGICAL,    2);
+        operator(TokenKind.EQUAL,            "eq",  EQUALITY,   3);
+        operator(TokenKind.NOT_EQUAL,        "ne",  EQUALITY,   3);
+        operator(TokenKind.LESS_THAN,        "lt",  RELATIONAL, 4);
+        operator(TokenKind.LESS_OR_EQUAL,    "le",  RELATIONAL, 4);
+        operator(TokenKind.GREATER_THAN,     "gt",  RELATIONAL, 4);
+        operator(TokenKind.GREATER_OR_EQUAL, "ge",  RELATIONAL, 4);
+        operator(TokenKind.ADD,              "add", ARITHMETIC, 5);
+        operator(TokenKind.SUBTRACT,         "sub", ARITHMETIC, 5);
+        operator(TokenKind.MULTIPLY,         "mul", ARITHMETIC, 6);
+        operator(TokenKind.DIVIDE,           "div", ARITHMETIC, 6);
+        operator(TokenKind.MODULUS,          "rem", ARITHMETIC, 6);
+
+        OPERATORS[TokenKind.NOT] = "not";
+        CATEGORY[TokenKind.NOT] = LOGICAL;
+        PREFIX[TokenKind.NOT] = 7;
+    }
+
+    private static void operator(int kind, String operation, int category, int precedence) {
+        OPERATORS[kind] = operation;
+        CATEGORY[kind] = category;
+        PRECEDENCE[kind] = precedence;
+    }
+
     private IToken token;
+    // Integer kind of the current token, the parser decides on it instead of the token name
+    private int kind;
     private IScanner scanner;
     private IIntermediateCode code;
-    private Map<String, IDataType> symbols;
+    private ISymbolTable symbols;
+    // Values of constant subexpressions whose push has not been generated yet (floats by their bits)
+    private int[] constants;
+    private boolean[] floating;
+    private int pending;
+    // Operators and open parentheses of the expression being parsed, with their precedence and the constant and type attributes of their left operand
+    private int[] stack;
+    private int[] precedence;
+    private boolean[] constant;
+    private int[] types;
+    // Label of the jump over the right operand of && and || (or NEUTRAL, DECIDED), and the pending constants when a decided one started
+    private int[] branches;
+    private int[] pendings;
+    // Line of each operator, where an error found when it is folded is reported
+    private int[] lines;
+    private int operators;
+    // Deepest the operator stack went, the depth the recursive productions would have reached
+    private int maxDepth;
+    // Type tag of the last operand (or expression) parsed
+    private int type;
+    // Parentheses an expression can nest, a deeper one is an error instead of growing the stack without bound
+    private int nestingLimit;
+    // Statements inside the one being parsed
+    private int nesting;
+    // Last label number used
+    private int labels;
+    // Greater than 0 while parsing code that never runs, nothing is generated for it
+    private int discarding;
     
     public Parser(IScanner scanner) {
+        this(scanner, new IntermediateCode());
+    }
+
+    public Parser(IScanner scanner, IIntermediateCode code) {
+        this(scanner, code, new SymbolTable());
+    }
+
+    public Parser(IScanner scanner, IIntermediateCode code, ISymbolTable symbols) {
         this.scanner = scanner;
         this.token = this.scanner.getToken();
-        // Save variables in HashMap with name of id (String), and type (IDataType)
-        this.symbols = new HashMap<String, IDataType>();
+        this.kind = TokenKind.of(this.token);
+        // Save variables in the symbol table, every variable gets a slot number used by the generated code
+        this.symbols = symbols;
         // Keep track of code (instructions) as we parse the tree
-        this.code = new IntermediateCode();
+        this.code = code;
+        this.constants = new int[16];
+        this.floating = new boolean[16];
+        this.stack = new int[16];
+        this.precedence = new int[16];
+        this.constant = new boolean[16];
+        this.types = new int[16];
+        this.branches = new int[16];
+        this.pendings = new int[16];
+        this.lines = new int[16];
+        this.nestingLimit = DEFAULT_NESTING_LIMIT;
     }
 
-    public String compile() throws Exception {
+    public void setNestingLimit(int nestingLimit) {
+        this.nestingLimit = nestingLimit;
+    }
+
+    // Generate the code into the intermediate code given to the constructor
+    public void parse() throws Exception {
         program();
 
+        this.code.flush();
+    }
+
+    public String compile() throws Exception {
+        parse();
+
         // Return full code from parse tree
         return this.code.toString();
     }
+
+    public ISymbolTable getSymbols() {
+        return this.symbols;
+    }
+
+    public int getMaxDepth() {
+        return this.maxDepth;
+    }
+
+    public void compile(Writer output) throws Exception {
+        // Stream the code to the output as it is generated instead of keeping it in memory
+        this.code = new IntermediateCode(output);
+
+        parse();
+    }
     
     private void program() throws Exception {
         // Match necessary tokens to begin program
-        match("void");
-        match("main");
-        match("open-curly-bracket");
+        match(TokenKind.VOID);
+        match(TokenKind.MAIN);
+        match(TokenKind.OPEN_CURLY_BRACKET);
         
         // Following grammar rule
         declarations();
         statements();
         
-        match("closed-curly-bracket");
+        match(TokenKind.CLOSED_CURLY_BRACKET);
         
-        this.code.generate("halt");
+        generate("halt");
     }
     
     private void declarations() throws Exception {
-        // Checking to see if variable is being declared
-        if (this.token.getName().equals("int") || this.token.getName().equals("float") || this.token.getName().equals("boolean")) {
+        // Checking to see if variable is being declared (a loop instead of the recursion of the grammar)
+        while (TokenKind.in(this.kind, FIRST_DECLARATION)) {
             declaration();
-            declarations();
         }
         // No else because epsilon in grammar rules
     }
@@ -136,37 +315,37 @@ public class Parser implements IParser {
         // Confirm id
         identifiers(type());
         // Match semicolon at end of declaration
-        match("semicolon");    
+        match(TokenKind.SEMICOLON);    
     }
 
     private String type() throws Exception {
-         String type = this.token.getName();
+        String type = TokenKind.name(this.kind);
         
-         if (type.equals("int")) {
-             match("int");
-         } else if (type.equals("float")) {
-                match("float");
-         } else if (type.equals("boolean")) {
-              match("boolean");
-         } else {
-             throw new Exception("\nError at line " + this.scanner.getLine() + ": data type expected");
-         }
+        switch (this.kind) {
+            case TokenKind.INT:
+            case TokenKind.FLOAT:
+            case TokenKind.BOOLEAN:
+                match(this.kind);
+                break;
+            default:
+                throw new Exception("\nError at line " + this.scanner.getLine() + ": data type expected");
+        }
         
-         return type;
+        return type;
     }
 
     private void identifiers(String type) throws Exception {
-         if (this.token.getName().equals("id")) {
+         if (this.kind == TokenKind.ID) {
              Identifier id = (Identifier) this.token;
 
-              if (this.symbols.get(id.getLexeme()) == null)
-                  this.symbols.put(id.getLexeme(), new PrimitiveType(type));
-              else
+              int slot = this.symbols.add(id.getLexeme(), new PrimitiveType(type));
+
+              if (slot < 0)
                    throw new Exception("\nError at line " + this.scanner.getLine() + ": identifier '" + id.getLexeme() + "' is already declared");
         
-              match("id");
+              match(TokenKind.ID);
             
-              assignmentDeclaration(type, id);
+              assignmentDeclaration(type, slot);
             
               moreIdentifiers(type);
          } else {
@@ -176,185 +355,728 @@ public class Parser implements IParser {
     
     private void moreIdentifiers(String type) throws Exception {
         // If more than one of same variable type is declared
-         if (this.token.getName().equals("comma")) {
-              match("comma");
+         while (this.kind == TokenKind.COMMA) {
+              match(TokenKind.COMMA);
             
-              if (this.token.getName().equals("id")) {
+              if (this.kind == TokenKind.ID) {
                   Identifier id = (Identifier) this.token;
 
-                   if (this.symbols.get(id.getLexeme()) == null)
-                        this.symbols.put(id.getLexeme(), new PrimitiveType(type));
-                   else
+                   int slot = this.symbols.add(id.getLexeme(), new PrimitiveType(type));
+
+                   if (slot < 0)
                        throw new Exception("\nError at line " + this.scanner.getLine() + ": identifier '" + id.getLexeme() + "' is already declared");
 
-                   match("id");
+                   match(TokenKind.ID);
                 
-                   assignmentDeclaration(type, id);
-
-                   moreIdentifiers(type);
+                   assignmentDeclaration(type, slot);
               } else {
                    throw new Exception("\nError at line " + this.scanner.getLine() + ": identifier expected");                
               }
          }
     }
     
-    private void assignmentDeclaration(String type, Identifier id) throws Exception {
-        if (this.token.getName().equals("assignment")) {
-            match("assignment");
+    private void assignmentDeclaration(String type, int slot) throws Exception {
+        if (this.kind == TokenKind.ASSIGNMENT) {
+            match(TokenKind.ASSIGNMENT);
             
             // the token 'assignment' allows to assign a value to a variable in the declaration
 
-            this.code.generate("addressof " + id.getLexeme());
+            generate("addressof " + slot);
             
-            arithmeticExpression();
-            
-            this.code.generate("store");
+            assign(slot, expression());
           }
     }    
 
     private void statements() throws Exception {
-          String tokenName = this.token.getName();
-
           // check the tokens in FIRST(statement)
         
-            if (tokenName.equals("int") || tokenName.equals("float") || tokenName.equals("boolean") || tokenName.equals("id")) {            
+          while (TokenKind.in(this.kind, FIRST_STATEMENT)) {            
               statement();
-              statements();            
           }
     }
     
     private void statement() throws Exception {
-          String tokenName = this.token.getName();
-        
           // check the tokens in FIRST(statement)
         
-          if (tokenName.equals("int") || tokenName.equals("float") || tokenName.equals("boolean")) {
+          if (TokenKind.in(this.kind, FIRST_DECLARATION)) {
             declaration();
           } 
-          else if (tokenName.equals("id")) {
+          else if (this.kind == TokenKind.ID) {
             assignmentExpression();
-            match("semicolon");
+            match(TokenKind.SEMICOLON);
+          }
+          else {
+            if (this.nesting == STATEMENT_NESTING_LIMIT) {
+                throw new Exception("\nError at line " + this.scanner.getLine() + ": statement nested too deeply");
+            }
+
+            this.nesting++;
+
+            switch (this.kind) {
+                case TokenKind.IF:    ifStatement(); break;
+                case TokenKind.WHILE: whileStatement(); break;
+                case TokenKind.DO:    doStatement(); break;
+                case TokenKind.FOR:   forStatement(); break;
+                case TokenKind.OPEN_CURLY_BRACKET: block(); break;
+                default:
+                    throw new Exception("\nError at line " + this.scanner.getLine() + ": statement expected");
+            }
+
+            this.nesting--;
           }
     }
 
-    private void assignmentExpression() throws Exception {  
-        Identifier id = (Identifier) this.token;
+    private void block() throws Exception {
+        match(TokenKind.OPEN_CURLY_BRACKET);
+
+        statements();
+
+        match(TokenKind.CLOSED_CURLY_BRACKET);
+    }
+
+    // if ( condition ) statement [else statement]
+    private void ifStatement() throws Exception {
+        match(TokenKind.IF);
+        match(TokenKind.OPEN_PARENTHESIS);
 
-        this.code.generate("address of" + id.getLexeme());
+        int condition = condition();
 
-        match("id");
-        match("assignment");
+        match(TokenKind.CLOSED_PARENTHESIS);
 
-        arithmeticExpression();
+        // Only the branch that runs is generated
+        if (condition >= 0) {
+            statement(condition == 1);
 
-        this.code.generate("store");
+            if (this.kind == TokenKind.ELSE) {
+                match(TokenKind.ELSE);
+
+                statement(condition == 0);
+            }
+
+            return;
+        }
+
+        int otherwise = newLabel();
+
+        generate("iffalse L" + otherwise);
+
+        statement();
+
+        if (this.kind == TokenKind.ELSE) {
+            int end = newLabel();
+
+            match(TokenKind.ELSE);
+
+            generate("goto L" + end);
+            label(otherwise);
+
+            statement();
+
+            label(end);
+        } else {
+            label(otherwise);
+        }
+    }
+
+    // while ( condition ) statement
+    private void whileStatement() throws Exception {
+        match(TokenKind.WHILE);
+        match(TokenKind.OPEN_PARENTHESIS);
+
+        IIntermediateCode code = capture();
+        int condition = condition();
+        IIntermediateCode test = restore(code);
+
+        match(TokenKind.CLOSED_PARENTHESIS);
+
+        loop(test, condition, null);
     }
 
-    // arithmetic-expression    ->  arithmetic-expression + arithmetic-term { generateCode("+") } |
-    //  *                                  arithmetic-expression - arithmetic-term { generateCode("-") } |
-    //  *                                  arithmetic-term
-    private void arithmeticExpression() throws Exception {
-        if(this.token.getName().equals("+")) {
-            arithmeticExpression();
-            arithmeticTerm();
-            this.code.generate("+");
-            match("+");
+    // do statement while ( condition ) ;
+    private void doStatement() throws Exception {
+        int body = newLabel();
+
+        match(TokenKind.DO);
+
+        label(body);
+
+        statement();
+
+        match(TokenKind.WHILE);
+        match(TokenKind.OPEN_PARENTHESIS);
+
+        int condition = condition();
+
+        match(TokenKind.CLOSED_PARENTHESIS);
+        match(TokenKind.SEMICOLON);
+
+        if (condition < 0) {
+            generate("iftrue L" + body);
+        } else if (condition == 1) {
+            generate("goto L" + body);
         }
-        else if(this.token.getName().equals("-")) {
-            arithmeticExpression();
-            arithmeticTerm();
-            this.code.generate("-");
-            match("-");
+    }
+
+    // for ( [assignment-expression] ; [condition] ; [assignment-expression] ) statement
+    private void forStatement() throws Exception {
+        match(TokenKind.FOR);
+        match(TokenKind.OPEN_PARENTHESIS);
+
+        if (this.kind == TokenKind.ID) {
+            assignmentExpression();
         }
-        else {
-            arithmeticTerm();
+
+        match(TokenKind.SEMICOLON);
+
+        IIntermediateCode code = capture();
+        // No condition is always true
+        int condition = this.kind == TokenKind.SEMICOLON ? 1 : condition();
+        IIntermediateCode test = restore(code);
+
+        match(TokenKind.SEMICOLON);
+
+        code = capture();
+
+        if (this.kind == TokenKind.ID) {
+            assignmentExpression();
         }
 
+        IIntermediateCode update = restore(code);
+
+        match(TokenKind.CLOSED_PARENTHESIS);
+
+        loop(test, condition, update);
     }
-        
-    // arithmetic-term          ->  arithmetic-factor more-arithmetic-factors
-    private void arithmeticTerm() throws Exception {
-       
-       arithmeticFactor();
-       moreArithmeticFactors();
-       
+
+    // Body of a while or a for, followed by the update (if any) and the test of the condition at the bottom
+    private void loop(IIntermediateCode test, int condition, IIntermediateCode update) throws Exception {
+        if (condition == 0) {
+            statement(false);
+            return;
+        }
+
+        int body = newLabel();
+        int check = condition < 0 ? newLabel() : 0;
+
+        if (condition < 0) {
+            generate("goto L" + check);
+        }
+
+        label(body);
+
+        statement();
+
+        replay(update);
+
+        if (condition < 0) {
+            label(check);
+            replay(test);
+            generate("iftrue L" + body);
+        } else {
+            generate("goto L" + body);
+        }
     }
-        
-    // *     more-arithmetic-terms    ->  + arithmetic-term { generateCode("+") } more-arithmetic-terms |
-    // *                                  - arithmetic-term { generateCode("-") } more-arithmetic-terms |
-    // *                                  epsilon
-    private void moreArithmeticTerms() throws Exception {
-       
-        if(this.token.getName().equals("add")) {
-            this.code.generate("+");
 
-            moreArithmeticTerms();
+    // A statement that never runs is parsed and checked, but its code is not generated
+    private void statement(boolean runs) throws Exception {
+        if (runs) {
+            statement();
+            return;
+        }
+
+        int pending = this.pending;
 
-            match("+");
+        this.discarding++;
+
+        statement();
+
+        this.discarding--;
+        this.pending = pending;
+    }
+
+    // A boolean expression: returns its value if it is constant (1 or 0), otherwise -1 and its code leaves the value on the stack
+    private int condition() throws Exception {
+        boolean constant = expression();
+
+        if (this.type != SymbolTable.BOOLEAN) {
+            throw new Exception("\nError at line " + this.scanner.getLine() + ": incompatible types, " + TYPES[this.type] + " cannot be converted to boolean");
         }
-        else if(this.token.getName().equals("subtract")) {
-            this.code.generate("-");
 
-            moreArithmeticTerms();
-            
-            match("-");
+        return constant ? this.constants[--this.pending] : -1;
+    }
+
+    // Generate into a code of its own until restore(), for code that goes after the code parsed next
+    private IIntermediateCode capture() {
+        IIntermediateCode code = this.code;
+
+        this.code = new IntermediateCode();
+
+        return code;
+    }
+
+    // Go back to the code returned by capture(), returns the code captured
+    private IIntermediateCode restore(IIntermediateCode code) {
+        IIntermediateCode captured = this.code;
+
+        this.code = code;
+
+        return captured;
+    }
+
+    private void replay(IIntermediateCode code) throws Exception {
+        if (code != null) {
+            for (String instruction : code.getInstructions()) {
+                generate(instruction);
+            }
         }
-        // Else epsilon so not else
     }
 
-    private void arithmeticFactor() throws Exception {
-        if (this.token.getName().equals("open-parenthesis")) {
+    private void assignmentExpression() throws Exception {  
+        int slot = variable();
+
+        generate("addressof " + slot);
+
+        match(TokenKind.ID);
+        match(TokenKind.ASSIGNMENT);
+
+        assign(slot, expression());
+    }
+
+    // Store the value of the expression just parsed in the variable, an int is converted to a float variable
+    private void assign(int slot, boolean constant) throws Exception {
+        int type = this.symbols.getTypeTag(slot);
+
+        if (this.type != type) {
+            if (type != SymbolTable.FLOAT || this.type != SymbolTable.INT) {
+                throw new Exception("\nError at line " + this.scanner.getLine() + ": incompatible types, " + TYPES[this.type] + " cannot be converted to " + TYPES[type]);
+            }
+
+            toFloat(constant);
+        }
 
-            match("open-parenthesis");
-            arithmeticExpression();
-            match("closed-parenthesis");
+        generate(type == SymbolTable.FLOAT ? "fstore" : "istore");
+
+        if (this.discarding == 0) {
+            this.symbols.addDefinitions(slot, 1);
         }
+    }
+
+    // expression -> prefix* factor (operator prefix* factor)*
+    //
+    // Precedence climbing with an explicit stack: the operators waiting for their right operand and the
+    // open parentheses are pushed, and an operator is generated once the next one does not bind tighter,
+    // one loop iteration per operator. The code is in postfix order, as with one production per level.
+    //
+    // Returns true if the expression is constant: its value is then the last pending constant and no code was generated for it.
+    // The type of the expression is left in this.type
+    private boolean expression() throws Exception {
+        int base = this.operators;
+        int nesting = 0;
+
+        while (true) {
+
+            // Prefix operators and open parentheses, then the factor
+
+            while (PREFIX[this.kind] > 0 || this.kind == TokenKind.OPEN_PARENTHESIS) {
+                if (this.kind == TokenKind.OPEN_PARENTHESIS) {
+                    if (nesting == this.nestingLimit) {
+                        throw new Exception("\nError at line " + this.scanner.getLine() + ": expression nested too deeply");
+                    }
+
+                    nesting++;
+                }
+
+                push(this.kind, PREFIX[this.kind], false, 0);
+
+                match(this.kind);
+            }
 
-       // else if it is an id
-       // id  { generateCode("addressof " + id.lexeme); generateCode("load") }
+            boolean constant = factor();
 
-       else if (this.token.getName().equals("id")) {
+            // Binary operators, closing the parentheses on the way
 
-            // Downcast into Identifier
-            Identifier id = (Identifier) this.token;
+            while (true) {
+                if (PRECEDENCE[this.kind] > 0) {
+                    constant = reduce(base, PRECEDENCE[this.kind], constant);
 
-            // Get lexeme
-            this.code.generate("addressof " + id.getLexeme());
-            this.code.generate("load");
+                    push(this.kind, PRECEDENCE[this.kind], constant, this.type);
 
-            match("id");
+                    if (CATEGORY[this.kind] == LOGICAL && this.type == SymbolTable.BOOLEAN) {
+                        shortCircuit(this.kind, constant);
+                    }
+
+                    match(this.kind);
+                    break;
+                }
+
+                constant = reduce(base, 1, constant);
+
+                if (this.operators == base) {
+                    return constant;
+                }
+
+                match(TokenKind.CLOSED_PARENTHESIS);
+
+                this.operators--;
+                nesting--;
+            }
+        }
+    }
+
+    // Generate the operators on the stack down to the last open parenthesis with a precedence of at
+    // least the given one (left associative), the right operand of the one on top is given and the result returned
+    private boolean reduce(int base, int precedence, boolean right) throws Exception {
+        while (this.operators > base && this.precedence[this.operators - 1] >= precedence) {
+            this.operators--;
+
+            int kind = this.stack[this.operators];
+
+            if (PREFIX[kind] > 0) {
+                right = operation(kind, right);
+            } else if (this.branches[this.operators] != 0) {
+                right = shortCircuit(kind, this.operators, right);
+            } else {
+                right = operation(kind, this.constant[this.operators], this.types[this.operators], right, this.lines[this.operators]);
+            }
+        }
+
+        return right;
+    }
+
+    // Push an operator (or open parenthesis, precedence 0) with the constant and type attributes of its left operand
+    private void push(int kind, int precedence, boolean constant, int type) {
+        if (this.operators == this.stack.length) {
+            this.stack = Arrays.copyOf(this.stack, this.operators * 2);
+            this.precedence = Arrays.copyOf(this.precedence, this.operators * 2);
+            this.constant = Arrays.copyOf(this.constant, this.operators * 2);
+            this.types = Arrays.copyOf(this.types, this.operators * 2);
+            this.branches = Arrays.copyOf(this.branches, this.operators * 2);
+            this.pendings = Arrays.copyOf(this.pendings, this.operators * 2);
+            this.lines = Arrays.copyOf(this.lines, this.operators * 2);
+        }
+
+        this.stack[this.operators] = kind;
+        this.precedence[this.operators] = precedence;
+        this.constant[this.operators] = constant;
+        this.types[this.operators] = type;
+        this.branches[this.operators] = 0;
+        this.lines[this.operators] = this.scanner.getLine();
+        this.operators++;
+
+        if (this.operators > this.maxDepth) {
+            this.maxDepth = this.operators;
+        }
+    }
+
+    // Start of && or || (just pushed) after its left operand: a computed left operand jumps over the
+    // right one when it decides the result, a constant one is dropped if it is neutral, otherwise it is
+    // the result and the code of the right operand is discarded
+    private void shortCircuit(int kind, boolean constant) throws Exception {
+        int operator = this.operators - 1;
+
+        if (!constant) {
+            this.branches[operator] = newLabel();
+
+            generate((kind == TokenKind.AND ? "iffalse L" : "iftrue L") + this.branches[operator]);
+        } else if ((this.constants[this.pending - 1] != 0) == (kind == TokenKind.AND)) {
+            this.pending--;
+            this.branches[operator] = NEUTRAL;
+        } else {
+            this.branches[operator] = DECIDED;
+            this.pendings[operator] = this.pending;
+            this.discarding++;
+        }
+    }
+
+    // End of && or || after its right operand: the value of the right operand is the result, unless the
+    // left one jumped over it to push the value that decided the result
+    private boolean shortCircuit(int kind, int operator, boolean right) throws Exception {
+        operandType(kind, this.types[operator], this.type);
+
+        this.type = SymbolTable.BOOLEAN;
+
+        switch (this.branches[operator]) {
+            case NEUTRAL:
+                return right;
+
+            case DECIDED:
+                this.discarding--;
+                this.pending = this.pendings[operator];
+
+                return true;
+
+            default:
+                int end = newLabel();
+
+                generate("goto L" + end);
+                label(this.branches[operator]);
+                generate(kind == TokenKind.AND ? "ipush 0" : "ipush 1");
+                label(end);
+
+                return false;
+        }
+    }
+
+    private boolean factor() throws Exception {
+       // id  { generateCode("addressof " + id.slot); generateCode("iload" or "fload") }
+
+       if (this.kind == TokenKind.ID) {
+            int slot = variable();
+
+            // The code refers to the variable by its slot
+            this.type = this.symbols.getTypeTag(slot);
+
+            generate("addressof " + slot);
+            generate(this.type == SymbolTable.FLOAT ? "fload" : "iload");
+
+            // Loads and stores are counted on the symbol, for the dead-store optimizer
+            if (this.discarding == 0) {
+                this.symbols.addUses(slot, 1);
+            }
+
+            match(TokenKind.ID);
+
+            return false;
         }
 
        // else if it is a num
-       // num { generateCode("push " + num.value) }
+       // num { generateCode("ipush " + num.value) }, delayed until we know if the enclosing expression is constant
 
-       else if(this.token.getName().equals("int")){
+       else if(this.kind == TokenKind.INT){
             // Downcast into IntegerNumber
             IntegerNumber num = (IntegerNumber) this.token;
 
-            // generate code
-            this.code.generate("push" + num.getValue());
+            constant(num.getValue(), SymbolTable.INT);
+
+            match(TokenKind.INT);
 
-            match("int");
+            return true;
+       }
+
+       // real { generateCode("fpush " + real.value) }, delayed as well
+
+       else if (this.kind == TokenKind.FLOAT && this.token instanceof FloatingPointNumber) {
+            FloatingPointNumber num = (FloatingPointNumber) this.token;
+
+            constant(Float.floatToRawIntBits(num.getValue()), SymbolTable.FLOAT);
+
+            match(TokenKind.FLOAT);
+
+            return true;
+       }
+
+       // true and false are the constants 1 and 0
+
+       else if (this.kind == TokenKind.TRUE || this.kind == TokenKind.FALSE) {
+            constant(this.kind == TokenKind.TRUE ? 1 : 0, SymbolTable.BOOLEAN);
+
+            match(this.kind);
+
+            return true;
        }
        else {
             throw new Exception("\nError at line " + this.scanner.getLine() + ": factor expected");
        }
     }
 
-    // *     more-arithmetic-factors  ->  * arithmetic-factor { generateCode("*") } more-arithmetic-factors |
-    // *                                  / arithmetic-factor { generateCode("/") } more-arithmetic-factors |
-    // *                                  % arithmetic-factor { generateCode("%") } more-arithmetic-factors |
-    // *                                  epsilon
-    private void moreArithmeticFactors() throws Exception {
-       
-       // implement the grammar rule more-arithmetic-factors
+    // Slot of the identifier in the current token
+    private int variable() throws Exception {
+        Identifier id = (Identifier) this.token;
+
+        int slot = this.symbols.lookup(id.getLexeme());
+
+        if (slot < 0) {
+            throw new Exception("\nError at line " + this.scanner.getLine() + ": identifier '" + id.getLexeme() + "' is not declared");
+        }
+
+        return slot;
+    }
+
+    // Check the types of the operands, then fold the operation if both are constant or generate the
+    // instruction for the type of the operands. The right operand is the last one parsed (this.type)
+    private boolean operation(int kind, boolean left, int leftType, boolean right, int line) throws Exception {
+        int rightType = this.type;
+        int type = operandType(kind, leftType, rightType);
+
+        this.type = CATEGORY[kind] == ARITHMETIC ? type : SymbolTable.BOOLEAN;
+
+        if (left && right) {
+            int num2 = this.constants[--this.pending];
+            int num1 = this.constants[--this.pending];
+
+            if (type == SymbolTable.FLOAT) {
+                float real1 = leftType == SymbolTable.FLOAT ? Float.intBitsToFloat(num1) : (float) num1;
+                float real2 = rightType == SymbolTable.FLOAT ? Float.intBitsToFloat(num2) : (float) num2;
+
+                constant(operate(real1, real2, OPERATORS[kind]), this.type);
+            } else {
+                constant(operate(num1, num2, OPERATORS[kind], line), this.type);
+            }
+
+            return true;
+        }
+
+        // An int operand of a float operation is converted: the right one is on top of the stack, the left one below it
+        if (type == SymbolTable.FLOAT) {
+            if (rightType == SymbolTable.INT) {
+                toFloat(right);
+            }
+
+            if (leftType == SymbolTable.INT) {
+                generate("i2f.1");
+            }
+        }
+
+        // If the right operand is constant its push is generated here, the left one was generated with the code of the right operand
+        generate(instruction(kind, type));
+
+        return false;
+    }
+
+    // Prefix operator
+    private boolean operation(int kind, boolean operand) throws Exception {
+        if (this.type != SymbolTable.BOOLEAN) {
+            throw new Exception("\nError at line " + this.scanner.getLine() + ": operator '" + lexeme(kind) + "' cannot be applied to " + TYPES[this.type]);
+        }
+
+        if (operand) {
+            this.constants[this.pending - 1] = this.constants[this.pending - 1] ^ 1;
+
+            return true;
+        }
+
+        generate(OPERATORS[kind]);
+
+        return false;
+    }
+
+    // Type the operands of a binary operator are converted to: int and float are promoted to float,
+    // booleans only go with booleans (and only logical and equality operators take them)
+    private int operandType(int kind, int left, int right) throws Exception {
+        boolean booleans = left == SymbolTable.BOOLEAN && right == SymbolTable.BOOLEAN;
+
+        if (CATEGORY[kind] == LOGICAL) {
+            if (booleans) {
+                return SymbolTable.BOOLEAN;
+            }
+        } else if (CATEGORY[kind] == EQUALITY && booleans) {
+            return SymbolTable.INT;
+        } else if (isNumber(left) && isNumber(right)) {
+            // Numbers are compared by the equality operators as by the relational ones
+            return left == SymbolTable.FLOAT || right == SymbolTable.FLOAT ? SymbolTable.FLOAT : SymbolTable.INT;
+        }
+
+        throw new Exception("\nError at line " + this.scanner.getLine() + ": operator '" + lexeme(kind) + "' cannot be applied to " + TYPES[left] + " and " + TYPES[right]);
+    }
+
+    private static boolean isNumber(int type) {
+        return type == SymbolTable.INT || type == SymbolTable.FLOAT;
+    }
+
+    // Logical instructions have no type prefix, booleans are ints for the other ones
+    private static String instruction(int kind, int type) {
+        if (CATEGORY[kind] == LOGICAL) {
+            return OPERATORS[kind];
+        }
+
+        return (type == SymbolTable.FLOAT ? "f" : "i") + OPERATORS[kind];
+    }
+
+    private String lexeme(int kind) {
+        return this.scanner.getLexeme(TokenKind.name(kind));
+    }
+
+    // Convert the int on top of the stack to float, at compile time if it is a pending constant
+    private void toFloat(boolean constant) throws Exception {
+        if (constant) {
+            this.constants[this.pending - 1] = Float.floatToRawIntBits((float) this.constants[this.pending - 1]);
+            this.floating[this.pending - 1] = true;
+        } else {
+            generate("i2f");
+        }
+    }
+
+    // Relational and logical operators give 1 (true) or 0 (false), as the machine does
+    private static int operate(int num1, int num2, String operation, int line) throws Exception {
+        switch (operation) {
+            case "add": return num1 + num2;
+            case "sub": return num1 - num2;
+            case "mul": return num1 * num2;
+            case "div": if (num2 == 0) throw new Exception("\nError at line " + line + ": division by zero");
+                        return num1 / num2;
+            case "rem": if (num2 == 0) throw new Exception("\nError at line " + line + ": division by zero");
+                        return num1 % num2;
+            case "lt":  return num1 < num2 ? 1 : 0;
+            case "le":  return num1 <= num2 ? 1 : 0;
+            case "gt":  return num1 > num2 ? 1 : 0;
+            case "ge":  return num1 >= num2 ? 1 : 0;
+            case "eq":  return num1 == num2 ? 1 : 0;
+            case "ne":  return num1 != num2 ? 1 : 0;
+            case "and": return num1 & num2;
+            default:    return num1 | num2;
+        }
+    }
+
+    // Arithmetic gives the bits of the float, as the machine keeps it (division by zero is not an error for floats)
+    private static int operate(float num1, float num2, String operation) {
+        switch (operation) {
+            case "add": return Float.floatToRawIntBits(num1 + num2);
+            case "sub": return Float.floatToRawIntBits(num1 - num2);
+            case "mul": return Float.floatToRawIntBits(num1 * num2);
+            case "div": return Float.floatToRawIntBits(num1 / num2);
+            case "rem": return Float.floatToRawIntBits(num1 % num2);
+            case "lt":  return num1 < num2 ? 1 : 0;
+            case "le":  return num1 <= num2 ? 1 : 0;
+            case "gt":  return num1 > num2 ? 1 : 0;
+            case "ge":  return num1 >= num2 ? 1 : 0;
+            case "eq":  return num1 == num2 ? 1 : 0;
+            default:    return num1 != num2 ? 1 : 0;
+        }
+    }
+
+    private void constant(int value, int type) {
+        if (this.pending == this.constants.length) {
+            this.constants = Arrays.copyOf(this.constants, this.pending * 2);
+            this.floating = Arrays.copyOf(this.floating, this.pending * 2);
+        }
+
+        this.constants[this.pending] = value;
+        this.floating[this.pending] = type == SymbolTable.FLOAT;
+        this.pending++;
+        this.type = type;
+    }
+
+    private int newLabel() {
+        return ++this.labels;
+    }
+
+    private void label(int label) throws Exception {
+        generate("L" + label + ":");
+    }
+
+    // Every instruction goes through here: the pending constants are pushed first, in the order they were found
+    private void generate(String code) throws Exception {
+        // Code that never runs is only checked, the pending constants stay for the code that does
+        if (this.discarding > 0) {
+            return;
+        }
+
+        for (int i = 0; i < this.pending; i++) {
+            this.code.generate(this.floating[i] ? "fpush " + Float.intBitsToFloat(this.constants[i]) : "ipush " + this.constants[i]);
+        }
+
+        this.pending = 0;
+
+        this.code.generate(code);
     }
     
-    private void match(String tokenName) throws Exception {
-        if (this.token.getName().equals(tokenName)) {
+    private void match(int kind) throws Exception {
+        if (this.kind == kind) {
             this.token = this.scanner.getToken();
+            this.kind = TokenKind.of(this.token);
         } else {
+            String tokenName = TokenKind.name(kind);
+
             throw new Exception("\nError at line " + this.scanner.getLine() + ": " + (this.scanner.getLexeme(tokenName).equals("null") ? "token " + tokenName + " is not defined in 'lexicon.txt'" : tokenName + " expected"));
         }
     }
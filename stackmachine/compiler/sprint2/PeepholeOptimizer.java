@@ -0,0 +1,258 @@
+package stackmachine.compiler.sprint2;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import stackmachine.compiler.ISymbolTable;
+import stackmachine.vm.Opcode;
+
+/*
+ *  Peephole optimizer for the code generated by the Parser
+ *
+ *  Instructions are appended one at a time to the optimized code, and after each one the rules are
+ *  tried on the end of the code until none applies, so the result of a rule can enable another one.
+ *
+ *     fuse-load           addressof x; iload                 ->  iloadvar x
+ *     fuse-store          addressof x; <value>; istore       ->  <value>; istorevar x
+ *     fold-constants      ipush a; ipush b; op               ->  ipush (a op b)
+ *     identity            ipush 0; iadd | ipush 0; isub | ipush 1; imul | ipush 1; idiv   ->  (nothing)
+ *     self-assignment     iloadvar x; istorevar x            ->  (nothing)
+ *     store-load          istorevar x; iloadvar x            ->  dup; istorevar x
+ *     fuse-branch         ilt; iftrue L  ->  iflt L,   ilt; iffalse L  ->  ifge L   (the same for ile, ..., ine)
+ *                         not; iftrue L  ->  iffalse L
+ *
+ *  No rule looks across a label or a jump: the code after a label is also entered from elsewhere.
+ *
+ *  The same rules apply to the float instructions (fload, fpush, ...), except identity: x + 0.0 is not
+ *  x when x is -0.0. Int division and remainder by a constant zero are not folded, so the error still
+ *  happens at run time.
+ *
+ */
+
+public class PeepholeOptimizer implements IOptimizer {
+    // Jump of each int comparison when it is true
+    private static final Map<String, Integer> BRANCHES = Map.of("ilt", Opcode.IFLT, "ile", Opcode.IFLE, "igt", Opcode.IFGT,
+                                                                "ige", Opcode.IFGE, "ieq", Opcode.IFEQ, "ine", Opcode.IFNE);
+
+    private List<String> code;
+    // Instructions removed by each rule (in the order of the table above)
+    private Map<String, Integer> removed;
+    private Map<String, Integer> applied;
+
+    public PeepholeOptimizer() {
+        this.removed = new LinkedHashMap<String, Integer>();
+        this.applied = new LinkedHashMap<String, Integer>();
+
+        for (String rule : new String[] { "fuse-load", "fuse-store", "fold-constants", "identity", "self-assignment", "store-load", "fuse-branch" }) {
+            this.removed.put(rule, 0);
+            this.applied.put(rule, 0);
+        }
+    }
+
+    @Override
+    public IIntermediateCode optimize(IIntermediateCode code, ISymbolTable symbols) throws Exception {
+        this.code = new ArrayList<String>(code.getInstructions().size());
+
+        for (String instruction : code.getInstructions()) {
+            this.code.add(instruction);
+
+            while (rewrite());
+        }
+
+        IIntermediateCode optimized = new IntermediateCode();
+
+        for (String instruction : this.code) {
+            optimized.generate(instruction);
+        }
+
+        return optimized;
+    }
+
+    @Override
+    public String getId() {
+        return "peephole";
+    }
+
+    @Override
+    public String report() {
+        String report = "";
+
+        for (Map.Entry<String, Integer> rule : this.removed.entrySet()) {
+            report = report + rule.getKey() + ": applied " + this.applied.get(rule.getKey()) + " times, " + rule.getValue() + " instructions removed\n";
+        }
+
+        return report;
+    }
+
+    public int getRemoved(String rule) {
+        return this.removed.get(rule);
+    }
+
+    // Try the rules on the last instructions, returns true if one of them changed the code
+    private boolean rewrite() {
+        int size = this.code.size();
+
+        // self-assignment can take out every instruction there was
+        if (size == 0) {
+            return false;
+        }
+
+        String last = this.code.get(size - 1);
+        String previous = size > 1 ? this.code.get(size - 2) : "";
+
+        if (isTyped(last, "load") && previous.startsWith("addressof ")) {
+            replace(2, "fuse-load", last.charAt(0) + "loadvar " + operand(previous));
+            return true;
+        }
+
+        if (isTyped(last, "store")) {
+            return fuseStore(last.charAt(0));
+        }
+
+        if (isOperator(last) && previous.startsWith(last.charAt(0) + "push ")) {
+            String first = size > 2 ? this.code.get(size - 3) : "";
+            boolean folds = first.startsWith(last.charAt(0) + "push ");
+
+            if (last.charAt(0) == 'f') {
+                if (folds) {
+                    replace(3, "fold-constants", "fpush " + operate(Float.parseFloat(operand(first)), Float.parseFloat(operand(previous)), last));
+                    return true;
+                }
+
+                return false;
+            }
+
+            int right = Integer.parseInt(operand(previous));
+
+            if (folds && !((last.equals("idiv") || last.equals("irem")) && right == 0)) {
+                replace(3, "fold-constants", "ipush " + operate(Integer.parseInt(operand(first)), right, last));
+                return true;
+            }
+
+            if ((right == 0 && (last.equals("iadd") || last.equals("isub"))) || (right == 1 && (last.equals("imul") || last.equals("idiv")))) {
+                replace(2, "identity");
+                return true;
+            }
+        }
+
+        if (isBranch(mnemonic(last)) && (BRANCHES.containsKey(previous) || previous.equals("not"))) {
+            int branch = previous.equals("not") ? Opcode.IFFALSE : BRANCHES.get(previous);
+
+            // iffalse jumps when the condition does not hold
+            if (mnemonic(last).equals("iffalse")) {
+                branch = Opcode.negate(branch);
+            }
+
+            replace(2, "fuse-branch", Opcode.mnemonic(branch) + " " + operand(last));
+            return true;
+        }
+
+        if (isTyped(mnemonic(last), "storevar") && mnemonic(previous).equals(last.charAt(0) + "loadvar") && operand(last).equals(operand(previous))) {
+            replace(2, "self-assignment");
+            return true;
+        }
+
+        if (isTyped(mnemonic(last), "loadvar") && mnemonic(previous).equals(last.charAt(0) + "storevar") && operand(last).equals(operand(previous))) {
+            replace(2, "store-load", "dup", previous);
+            return true;
+        }
+
+        return false;
+    }
+
+    // addressof x; <value>; istore -> <value>; istorevar x (type is the prefix, i or f)
+    private boolean fuseStore(char type) {
+        // Walk back from the store adding the stack effects: the value starts where the sum first
+        // reaches 1 and the address is pushed by the instruction where it first reaches 2
+        int depth = 0;
+
+        for (int i = this.code.size() - 2; i >= 0; i--) {
+            String instruction = this.code.get(i);
+            int opcode = Opcode.valueOf(mnemonic(instruction));
+
+            if (opcode < 0 || opcode == Opcode.HALT || isStore(opcode) || Opcode.hasTarget(opcode)) {
+                return false;
+            }
+
+            depth = depth + Opcode.stackEffect(opcode);
+
+            if (depth == 2) {
+                if (opcode != Opcode.ADDRESSOF) {
+                    return false;
+                }
+
+                this.code.remove(i);
+                replace(1, "fuse-store", type + "storevar " + operand(instruction));
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    // Replace the last n instructions by the given ones
+    private void replace(int n, String rule, String... instructions) {
+        for (int i = 0; i < n; i++) {
+            this.code.remove(this.code.size() - 1);
+        }
+
+        for (String instruction : instructions) {
+            this.code.add(instruction);
+        }
+
+        // fuse-store already took the address out of the code
+        int removed = rule.equals("fuse-store") ? 1 : n - instructions.length;
+
+        this.applied.put(rule, this.applied.get(rule) + 1);
+        this.removed.put(rule, this.removed.get(rule) + removed);
+    }
+
+    private static String mnemonic(String instruction) {
+        int space = instruction.indexOf(' ');
+
+        return space < 0 ? instruction : instruction.substring(0, space);
+    }
+
+    private static String operand(String instruction) {
+        return instruction.substring(instruction.indexOf(' ') + 1);
+    }
+
+    // The int or float version of the operation: iload and fload for load, ...
+    private static boolean isTyped(String mnemonic, String operation) {
+        return (mnemonic.startsWith("i") || mnemonic.startsWith("f")) && mnemonic.length() == operation.length() + 1 && mnemonic.endsWith(operation);
+    }
+
+    private static boolean isBranch(String mnemonic) {
+        return mnemonic.equals("iftrue") || mnemonic.equals("iffalse");
+    }
+
+    private static boolean isStore(int opcode) {
+        return opcode == Opcode.ISTORE || opcode == Opcode.FSTORE || opcode == Opcode.ISTOREVAR || opcode == Opcode.FSTOREVAR;
+    }
+
+    // Arithmetic instructions
+    private static boolean isOperator(String instruction) {
+        return isTyped(instruction, "add") || isTyped(instruction, "sub") || isTyped(instruction, "mul") || isTyped(instruction, "div") || isTyped(instruction, "rem");
+    }
+
+    private static int operate(int num1, int num2, String operator) {
+        switch (operator) {
+            case "iadd": return num1 + num2;
+            case "isub": return num1 - num2;
+            case "imul": return num1 * num2;
+            case "idiv": return num1 / num2;
+            default:     return num1 % num2;
+        }
+    }
+
+    private static float operate(float num1, float num2, String operator) {
+        switch (operator) {
+            case "fadd": return num1 + num2;
+            case "fsub": return num1 - num2;
+            case "fmul": return num1 * num2;
+            case "fdiv": return num1 / num2;
+            default:     return num1 % num2;
+        }
+    }
+}
@@ -1,28 +1,342 @@
 package stackmachine.compiler.sprint2;
 
-import java.io.PrintWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+import instrumentation.CompilerMetrics;
+import instrumentation.ICompilerMetrics;
+import instrumentation.InstrumentedCode;
+import instrumentation.InstrumentedScanner;
+import instrumentation.InstrumentedSymbolTable;
+import instrumentation.Measurement;
+import lexer.DfaScanner;
 import slu.compiler.*;
+import stackmachine.compiler.ISymbolTable;
+import stackmachine.compiler.SymbolTable;
+import stackmachine.vm.Assembler;
+import stackmachine.vm.BytecodeWriter;
+import stackmachine.vm.Program;
 
 public class StackMachineCompiler implements IStackMachineCompiler {
+    // Part of the key of the cached outputs, change it whenever the generated code changes
+    public static final String VERSION = "2.15";
+
     private IParser parser;
+    private IOptimizer optimizer;
+    private boolean nameTable;
+    private ICompilationCache cache;
+    private ICompilerMetrics metrics = CompilerMetrics.global();
+    // Measurement of the compile in progress (null without metrics)
+    private Measurement measurement;
+
+    // Optional optimization stage between the parser and the output (null to disable)
+    public void setOptimizer(IOptimizer optimizer) {
+        this.optimizer = optimizer;
+    }
+
+    // The code refers to variables by slot number, with the name table on the names and types of the
+    // slots are also written (one per line, "name type") to fileName + ".names" for debugging
+    public void setNameTable(boolean nameTable) {
+        this.nameTable = nameTable;
+    }
+
+    // Optional cache of outputs (null to disable), looked up by the hash of the program, the lexicon,
+    // the compiler version and the options, so a hit writes the same file the compile would have
+    public void setCache(ICompilationCache cache) {
+        this.cache = cache;
+    }
+
+    // Optional phase timers and counters (null to disable), shared by any number of compilers
+    public void setMetrics(ICompilerMetrics metrics) {
+        this.metrics = metrics;
+    }
 
     @Override
     public void compile(String program, String fileName) throws Exception {
+        start(program, fileName);
+
+        boolean compiled = false;
+
+        try {
+            writeCode(program, fileName);
+            compiled = true;
+        } finally {
+            record(compiled);
+        }
+    }
+
+    // Binary output: see stackmachine.vm.Bytecode for the format
+    @Override
+    public void compileToBytecode(String program, String fileName) throws Exception {
+        start(program, fileName);
+
+        boolean compiled = false;
+
         try {
+            writeBytecode(program, fileName);
+            compiled = true;
+        } finally {
+            record(compiled);
+        }
+    }
+
+    private void writeCode(String program, String fileName) throws Exception {
+        Path outputFile = Paths.get(fileName);
+        Path temporaryFile = null;
+        String key = this.cache == null ? null : key(program, "sm");
+
+        if (key != null && restore(key, fileName) && (!this.nameTable || restore(key + ".names", fileName + ".names"))) {
+            return;
+        }
+
+        try {
+
+            enter(Measurement.OUTPUT);
+
+            temporaryFile = temporaryFile(outputFile);
+
+            // The code is written into a temporary file, so a failed compile never leaves a partial output behind
+            try (Writer output = Files.newBufferedWriter(temporaryFile, StandardCharsets.UTF_8)) {
+                if (this.optimizer == null) {
+                    // Without optimization the code is streamed to the output as it is generated
+                    parse(program, new IntermediateCode(output));
+
+                    enter(Measurement.OUTPUT);
+                } else {
+                    IIntermediateCode code = generate(program);
+
+                    enter(Measurement.OUTPUT);
 
-            this.parser = new Parser( new Scanner(program, StandardCharsets.UTF_8) );
+                    code.writeTo(output);
+                }
+            }
+
+            Files.move(temporaryFile, outputFile, StandardCopyOption.REPLACE_EXISTING);
+
+            if (this.nameTable) {
+                writeNameTable(fileName + ".names");
+            }
+
+            if (key != null) {
+                enter(Measurement.CACHE);
+
+                this.cache.put(key, Files.readAllBytes(outputFile));
+
+                if (this.nameTable) {
+                    this.cache.put(key + ".names", Files.readAllBytes(Paths.get(fileName + ".names")));
+                }
+            }
 
-            String code = this.parser.compile();        
-            
-            PrintWriter outputFile = new PrintWriter(fileName);
-        
-            outputFile.print(code);        
-            outputFile.close();
-            
         } catch (Exception e) {
+            if (temporaryFile != null) {
+                Files.deleteIfExists(temporaryFile);
+            }
+
             throw new Exception(e.getMessage());
         }
     }
+
+    private void writeBytecode(String program, String fileName) throws Exception {
+        Path outputFile = Paths.get(fileName);
+        Path temporaryFile = null;
+        String key = this.cache == null ? null : key(program, "smbc");
+
+        if (key != null && restore(key, fileName)) {
+            return;
+        }
+
+        try {
+
+            IIntermediateCode code = generate(program);
+
+            enter(Measurement.OUTPUT);
+
+            temporaryFile = temporaryFile(outputFile);
+
+            new BytecodeWriter().write(assemble(code), temporaryFile.toString());
+
+            Files.move(temporaryFile, outputFile, StandardCopyOption.REPLACE_EXISTING);
+
+            if (key != null) {
+                enter(Measurement.CACHE);
+
+                this.cache.put(key, Files.readAllBytes(outputFile));
+            }
+
+        } catch (Exception e) {
+            if (temporaryFile != null) {
+                Files.deleteIfExists(temporaryFile);
+            }
+
+            throw new Exception(e.getMessage());
+        }
+    }
+
+    // Compile into a Program in memory, ready for the stack machine
+    public Program compileToProgram(String program) throws Exception {
+        start(program, null);
+
+        boolean compiled = false;
+
+        try {
+            IIntermediateCode code = generate(program);
+
+            enter(Measurement.OUTPUT);
+
+            Program assembled = assemble(code);
+
+            compiled = true;
+
+            return assembled;
+        } finally {
+            record(compiled);
+        }
+    }
+
+    // The slot table of the program holds the names and types of the symbol table
+    private Program assemble(IIntermediateCode code) throws Exception {
+        ISymbolTable symbols = this.parser.getSymbols();
+        Program assembled = new Assembler(symbols.size()).assemble(code.getInstructions());
+        String[] variables = new String[Math.max(assembled.getVariables().length, symbols.size())];
+        int[] types = new int[variables.length];
+
+        for (int slot = 0; slot < variables.length; slot++) {
+            variables[slot] = slot < symbols.size() ? symbols.getName(slot) : assembled.getVariables()[slot];
+            types[slot] = slot < symbols.size() ? symbols.getTypeTag(slot) : SymbolTable.INT;
+        }
+
+        return new Program(assembled.getCode(), variables, types, assembled.getMaxStack());
+    }
+
+    // SHA-256 of the compiler version, the kind of output, the optimizer, the lexicon and the program
+    private String key(String program, String output) throws Exception {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+
+        digest.update((VERSION + '\0' + output + '\0' + (this.optimizer == null ? "" : this.optimizer.getId()) + '\0').getBytes(StandardCharsets.UTF_8));
+        digest.update(DfaScanner.lexiconDigest());
+        digest.update((byte) 0);
+
+        try (InputStream input = Files.newInputStream(Paths.get(program))) {
+            byte[] buffer = new byte[65536];
+            int count;
+
+            while ((count = input.read(buffer)) > 0) {
+                digest.update(buffer, 0, count);
+            }
+        } catch (NoSuchFileException e) {
+            throw new Exception("\nScanner: '" + program + "' not found");
+        }
+
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    // Write the cached output to the file, returns false on a miss
+    private boolean restore(String key, String fileName) throws Exception {
+        byte[] output = this.cache.get(key);
+
+        if (output == null) {
+            return false;
+        }
+
+        Path outputFile = Paths.get(fileName);
+        Path temporaryFile = temporaryFile(outputFile);
+
+        try {
+            Files.write(temporaryFile, output);
+            Files.move(temporaryFile, outputFile, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            Files.deleteIfExists(temporaryFile);
+
+            throw e;
+        }
+
+        return true;
+    }
+
+    // A new file next to the output, so compiles writing into the same directory never share one
+    private static Path temporaryFile(Path outputFile) throws IOException {
+        return Files.createTempFile(outputFile.toAbsolutePath().getParent(), outputFile.getFileName().toString() + ".", ".tmp");
+    }
+
+    private void writeNameTable(String fileName) throws Exception {
+        ISymbolTable symbols = this.parser.getSymbols();
+
+        try (Writer output = Files.newBufferedWriter(Paths.get(fileName), StandardCharsets.UTF_8)) {
+            for (int slot = 0; slot < symbols.size(); slot++) {
+                output.write(symbols.getName(slot));
+                output.write(' ');
+                output.write(Program.typeName(symbols.getTypeTag(slot)));
+                output.write('\n');
+            }
+        }
+    }
+
+    // Parse the program into memory and run the optimizer (if any) over the code
+    private IIntermediateCode generate(String program) throws Exception {
+        IIntermediateCode code = new IntermediateCode();
+
+        parse(program, code);
+
+        if (this.optimizer == null) {
+            return code;
+        }
+
+        enter(Measurement.OPTIMIZE);
+
+        return this.optimizer.optimize(code, this.parser.getSymbols());
+    }
+
+    // With metrics the scanner, the symbol table and the code are decorated to count and time what they do.
+    // The program file is closed even when the parse fails before its end
+    private void parse(String program, IIntermediateCode code) throws Exception {
+        enter(Measurement.SCAN);
+
+        try (DfaScanner scanner = new DfaScanner(program, StandardCharsets.UTF_8)) {
+
+            enter(Measurement.PARSE);
+
+            if (this.measurement == null) {
+                this.parser = new Parser(scanner, code);
+            } else {
+                this.parser = new Parser(new InstrumentedScanner(scanner, this.measurement), new InstrumentedCode(code, this.measurement), new InstrumentedSymbolTable(new SymbolTable(), this.measurement));
+            }
+
+            this.parser.parse();
+        }
+    }
+
+    private void start(String program, String fileName) {
+        this.parser = null;
+        this.measurement = this.metrics == null ? null : this.metrics.start(program, fileName);
+
+        enter(Measurement.CACHE);
+    }
+
+    private void enter(int phase) {
+        if (this.measurement != null) {
+            this.measurement.enter(phase);
+        }
+    }
+
+    private void record(boolean compiled) {
+        if (this.measurement != null) {
+            if (this.parser != null) {
+                this.measurement.setMaxDepth(this.parser.getMaxDepth());
+            }
+
+            this.measurement.setFailed(!compiled);
+
+            this.metrics.record(this.measurement);
+            this.measurement = null;
+        }
+    }
     
-}
\ No newline at end of file
+}
@@ -0,0 +1,74 @@
+package stackmachine.compiler.sprint2;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import com.sun.management.UnixOperatingSystemMXBean;
+
+// A compile that fails in the middle of the program must not leave the program file open
+
+public class TestFailedCompiles {
+	private static final int COMPILES = 500;
+
+	public static void main(String[] args) {
+		try {
+
+			OperatingSystemMXBean system = ManagementFactory.getOperatingSystemMXBean();
+
+			if (!(system instanceof UnixOperatingSystemMXBean)) {
+				System.out.println("Open files are not counted on this system");
+				return;
+			}
+
+			Path program = Files.createTempFile("failed", ".txt");
+			Path output = Files.createTempFile("failed", ".sm");
+
+			Files.write(program, "void main {\n    int a = 1;\n    a = (a + ;\n    a = a + 1;\n}\n".getBytes(StandardCharsets.UTF_8));
+
+			long before = 0;
+
+			// The first compiles load the classes and the scanner tables, the files they open stay open
+			for (int i = -1; i < COMPILES; i++) {
+				if (i == 0) {
+					before = ((UnixOperatingSystemMXBean) system).getOpenFileDescriptorCount();
+				}
+
+				for (int optimized = 0; optimized < 2; optimized++) {
+					StackMachineCompiler compiler = new StackMachineCompiler();
+
+					if (optimized == 1) {
+						compiler.setOptimizer(OptimizerPipeline.standard());
+					}
+
+					try {
+						compiler.compile(program.toString(), output.toString());
+						throw new Exception("\nThe compile of a wrong program did not fail");
+					} catch (Exception e) {
+						if (!e.getMessage().contains("Error at line 3")) {
+							throw e;
+						}
+					}
+				}
+			}
+
+			long after = ((UnixOperatingSystemMXBean) system).getOpenFileDescriptorCount();
+
+			Files.delete(program);
+			Files.delete(output);
+
+			if (after > before) {
+				System.out.println((after - before) + " files left open by " + (2 * COMPILES) + " failed compiles");
+				System.exit(1);
+			}
+
+			System.out.println((2 * COMPILES) + " failed compiles, no files left open");
+
+		} catch (Exception e) {
+			System.out.println(e.getMessage());
+			System.exit(1);
+		}
+	}
+
+}
@@ -0,0 +1,126 @@
+package stackmachine.compiler.sprint2;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import stackmachine.vm.Program;
+import stackmachine.vm.StackMachine;
+
+// The optimized programs must leave the variables they keep with the values the unoptimized ones leave,
+// and number the temporaries of every program from $t1 (the same optimizers compile all of them)
+//
+// Usage: java stackmachine.compiler.sprint2.TestOptimizer [program...]   (default: the programs below)
+
+public class TestOptimizer {
+	private static final String[] PROGRAMS = {
+		// Dead stores and unused variables
+		"void main {\n    int a = 1, b = 2, c, unused;\n    c = a + b;\n    a = c * 2;\n    c = a - b;\n    b = 7;\n}\n",
+		// Constant conditions and jumps to jumps
+		"void main {\n    int a = 3, b = 0, i;\n    boolean t = true;\n    if (t) {\n        b = a * 2;\n    } else {\n        b = a / 2;\n    }\n"
+		+ "    for (i = 0; i < 5; i = i + 1) {\n        if (1 < 2) {\n            b = b + i;\n        }\n    }\n}\n",
+		// Common subexpressions, in a loop and in both branches of an if
+		"void main {\n    int a = 9, b = 4, c = 0, d = 0, i;\n    float p = 1.5, q;\n    c = (a * b + 3) % 1000;\n    d = ((a * b + 3) * 2) % 1000;\n"
+		+ "    for (i = 0; i < 4; i = i + 1) {\n        c = ((c + b) * (a % 7) + (c + b)) % 1000;\n        d = ((c + b) - (a % 7)) % 1000;\n    }\n"
+		+ "    if ((a % 7) > (c + b)) {\n        a = ((a % 7) + (c * d)) % 1000;\n    } else {\n        b = ((c * d) - (a % 7)) % 1000;\n    }\n"
+		+ "    q = p * (a % 3) + p * a;\n    p = q / 3.0 - (p * b);\n}\n",
+		// Logical operators and comparisons
+		"void main {\n    int a = 5, b = 8;\n    boolean t, u;\n    t = a + b > 10 && a < b;\n    u = t || a + b == 13;\n    if (u && (a + b) > 0) {\n        a = (a + b) * (a + b);\n    }\n}\n",
+		// A self-assignment that leaves no code at all
+		"void main {\n    int a;\n    a = a;\n}\n",
+		// Variables never loaded whose first store stays (its value has a jump or can fail): the later
+		// stores must stay too
+		"void main {\n    int i, c, d = 2;\n    boolean b;\n    b = i < 1 || i > 5;\n    for (i = 0; i < 3; i = i + 1) b = false;\n"
+		+ "    c = 10 / d;\n    c = 3;\n}\n"
+	};
+
+	public static void main(String[] args) {
+		try {
+
+			List<Path> temporaryFiles = new ArrayList<Path>();
+			List<String> programs = new ArrayList<String>();
+
+			for (String argument : args) {
+				programs.add(argument);
+			}
+
+			if (programs.isEmpty()) {
+				for (String program : PROGRAMS) {
+					Path file = Files.createTempFile("optimizer", ".txt");
+
+					Files.write(file, program.getBytes(StandardCharsets.UTF_8));
+					temporaryFiles.add(file);
+					programs.add(file.toString());
+				}
+			}
+
+			IOptimizer optimizer = OptimizerPipeline.standard();
+			int failed = 0;
+
+			try {
+				for (String program : programs) {
+					String error = compare(program, optimizer);
+
+					if (error != null) {
+						System.out.println(program + ": " + error);
+						failed++;
+					}
+				}
+			} finally {
+				for (Path file : temporaryFiles) {
+					Files.deleteIfExists(file);
+				}
+			}
+
+			System.out.println(programs.size() + " programs, " + failed + " failed");
+
+			if (failed > 0) {
+				System.exit(1);
+			}
+
+		} catch (Exception e) {
+			System.out.println(e.getMessage());
+			System.exit(1);
+		}
+	}
+
+	// Returns what differs, null if nothing does
+	private static String compare(String program, IOptimizer optimizer) throws Exception {
+		StackMachineCompiler compiler = new StackMachineCompiler();
+		StackMachine expected = run(compiler.compileToProgram(program));
+
+		compiler = new StackMachineCompiler();
+		compiler.setOptimizer(optimizer);
+
+		Program optimized = compiler.compileToProgram(program);
+		StackMachine machine = run(optimized);
+		boolean temporaries = false;
+		boolean first = false;
+
+		for (String variable : optimized.getVariables()) {
+			if (variable.startsWith("$t")) {
+				temporaries = true;
+				first = first || variable.equals("$t1");
+			} else if (machine.getValue(variable) != expected.getValue(variable)) {
+				return "'" + variable + "' is " + machine.getValue(variable) + " instead of " + expected.getValue(variable);
+			}
+		}
+
+		if (temporaries && !first) {
+			return "the temporaries do not start at $t1";
+		}
+
+		return null;
+	}
+
+	private static StackMachine run(Program program) throws Exception {
+		StackMachine machine = new StackMachine();
+
+		machine.load(program);
+		machine.run();
+
+		return machine;
+	}
+
+}
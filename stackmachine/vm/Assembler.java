@@ -0,0 +1,331 @@
+package stackmachine.vm;
+
+import java.io.BufferedReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import stackmachine.compiler.SymbolTable;
+
+// Translates the text form of the stack machine code (one instruction or label per line) into a Program
+
+public class Assembler implements IAssembler {
+    // Slots hand written code can use, it does not declare its variables
+    public static final int MAX_VARIABLES = 65536;
+
+    private final int maxVariables;
+    private int[] code;
+    private int size;
+    private int line;
+    private int depth;
+    private int maxStack;
+    private int last;
+    private Map<String, Integer> slots;
+    private List<String> variables;
+    // Code index of each label, the jumps to labels not defined yet are patched in program()
+    private Map<String, Integer> labels;
+    private List<Integer> jumps;
+    private List<String> targets;
+    private List<Integer> lines;
+    // Stack depth at each label, from the first jump to it or the code falling through to it
+    private Map<String, Integer> depths;
+    // False after goto and halt, until the next label
+    private boolean reachable;
+    // Slot of the address at each depth of the stack (-1 for a value), and the slots used as floats: the
+    // code does not declare the types of its variables, the typed instructions that use them tell
+    private int[] addresses;
+    private BitSet floats;
+
+    public Assembler() {
+        this(MAX_VARIABLES);
+    }
+
+    // Code that refers to a slot at or beyond the number of declared variables is rejected
+    public Assembler(int variables) {
+        this.maxVariables = variables;
+    }
+
+    @Override
+    public Program assemble(String fileName) throws Exception {
+        reset();
+
+        try (BufferedReader input = Files.newBufferedReader(Paths.get(fileName), StandardCharsets.UTF_8)) {
+            String instruction;
+
+            while ((instruction = input.readLine()) != null) {
+                instruction(instruction);
+            }
+        }
+
+        return program();
+    }
+
+    @Override
+    public Program assemble(List<String> instructions) throws Exception {
+        reset();
+
+        for (String instruction : instructions) {
+            instruction(instruction);
+        }
+
+        return program();
+    }
+
+    private void reset() {
+        this.code = new int[256];
+        this.size = 0;
+        this.line = 0;
+        this.depth = 0;
+        this.maxStack = 0;
+        this.last = -1;
+        this.slots = new HashMap<String, Integer>();
+        this.variables = new ArrayList<String>();
+        this.labels = new HashMap<String, Integer>();
+        this.jumps = new ArrayList<Integer>();
+        this.targets = new ArrayList<String>();
+        this.lines = new ArrayList<Integer>();
+        this.depths = new HashMap<String, Integer>();
+        this.reachable = true;
+        this.addresses = new int[16];
+        this.floats = new BitSet();
+    }
+
+    private void instruction(String instruction) throws Exception {
+        this.line++;
+
+        instruction = instruction.trim();
+
+        if (instruction.isEmpty()) {
+            return;
+        }
+
+        if (instruction.endsWith(":") && instruction.indexOf(' ') < 0) {
+            label(instruction.substring(0, instruction.length() - 1));
+            return;
+        }
+
+        // An instruction is a mnemonic optionally followed by one operand
+        int space = instruction.indexOf(' ');
+        String mnemonic = space < 0 ? instruction : instruction.substring(0, space);
+        String operand = space < 0 ? null : instruction.substring(space + 1).trim();
+
+        int opcode = Opcode.valueOf(mnemonic);
+
+        if (opcode < 0) {
+            throw new Exception("\nError at line " + this.line + ": unknown instruction '" + mnemonic + "'");
+        }
+
+        if (Opcode.hasOperand(opcode) != (operand != null)) {
+            throw new Exception("\nError at line " + this.line + ": " + (operand == null ? "operand expected after '" + mnemonic + "'" : "'" + mnemonic + "' takes no operand"));
+        }
+
+        emit(opcode);
+
+        this.last = opcode;
+
+        if (Opcode.hasSlot(opcode)) {
+            int slot = slot(operand);
+
+            emit(slot);
+
+            if (opcode == Opcode.FLOADVAR || opcode == Opcode.FSTOREVAR) {
+                this.floats.set(slot);
+            }
+        } else if (Opcode.hasTarget(opcode)) {
+            emit(target(operand));
+        } else if (opcode == Opcode.IPUSH) {
+            emit(constant(operand));
+        } else if (opcode == Opcode.FPUSH) {
+            emit(Float.floatToRawIntBits(floatConstant(operand)));
+        }
+
+        // Keep track of the stack depth so the machine can preallocate its stack
+        this.depth = this.depth + Opcode.stackEffect(opcode);
+
+        if (this.depth < 0) {
+            throw new Exception("\nError at line " + this.line + ": stack underflow at '" + mnemonic + "'");
+        }
+
+        this.maxStack = Math.max(this.maxStack, this.depth);
+
+        address(opcode, operand);
+
+        if (Opcode.hasTarget(opcode)) {
+            depth(operand);
+        }
+
+        if (Opcode.endsBlock(opcode)) {
+            this.reachable = false;
+        }
+    }
+
+    // fload takes its address from the top of the stack, fstore from below its value
+    private void address(int opcode, String operand) throws Exception {
+        if (opcode == Opcode.FLOAD || opcode == Opcode.FSTORE) {
+            int slot = this.addresses[opcode == Opcode.FLOAD ? this.depth - 1 : this.depth];
+
+            if (slot >= 0) {
+                this.floats.set(slot);
+            }
+        }
+
+        if (this.depth > this.addresses.length) {
+            this.addresses = Arrays.copyOf(this.addresses, this.depth * 2);
+        }
+
+        if (opcode == Opcode.ADDRESSOF) {
+            this.addresses[this.depth - 1] = slot(operand);
+        } else if (this.depth > 0 && !isStore(opcode) && !Opcode.hasTarget(opcode) && opcode != Opcode.HALT) {
+            this.addresses[this.depth - 1] = -1;
+        }
+    }
+
+    private static boolean isStore(int opcode) {
+        return opcode == Opcode.ISTORE || opcode == Opcode.FSTORE || opcode == Opcode.ISTOREVAR || opcode == Opcode.FSTOREVAR;
+    }
+
+    private void label(String label) throws Exception {
+        if (this.labels.containsKey(label)) {
+            throw new Exception("\nError at line " + this.line + ": label '" + label + "' is already defined");
+        }
+
+        this.labels.put(label, this.size);
+
+        // Code after goto or halt is entered with the depth of the jumps to it
+        if (!this.reachable) {
+            Integer depth = this.depths.get(label);
+
+            this.depth = depth == null ? 0 : depth;
+            this.reachable = true;
+        }
+
+        depth(label);
+    }
+
+    // Every way into a label must leave the same number of values on the stack
+    private void depth(String label) throws Exception {
+        Integer depth = this.depths.putIfAbsent(label, this.depth);
+
+        if (depth != null && depth != this.depth) {
+            throw new Exception("\nError at line " + this.line + ": stack depth " + this.depth + " at '" + label + "' instead of " + depth);
+        }
+    }
+
+    // Code index of the label, patched later if it is not defined yet
+    private int target(String label) {
+        Integer target = this.labels.get(label);
+
+        if (target != null) {
+            return target;
+        }
+
+        this.jumps.add(this.size);
+        this.targets.add(label);
+        this.lines.add(this.line);
+
+        return -1;
+    }
+
+    private int slot(String variable) throws Exception {
+        // The compiler refers to variables by slot number, hand written code can still use names
+        if (Character.isDigit(variable.charAt(0))) {
+            int slot = constant(variable);
+
+            if (slot >= this.maxVariables) {
+                throw new Exception("\nError at line " + this.line + ": slot " + slot + " is out of range, only " + this.maxVariables + " variables can be used");
+            }
+
+            while (this.variables.size() <= slot) {
+                this.variables.add(null);
+            }
+
+            if (this.variables.get(slot) != null) {
+                throw new Exception("\nError at line " + this.line + ": slot " + slot + " is already used by '" + this.variables.get(slot) + "'");
+            }
+
+            return slot;
+        }
+
+        Integer slot = this.slots.get(variable);
+
+        if (slot == null) {
+            slot = this.variables.size();
+
+            if (slot >= this.maxVariables) {
+                throw new Exception("\nError at line " + this.line + ": too many variables at '" + variable + "', only " + this.maxVariables + " can be used");
+            }
+
+            this.slots.put(variable, slot);
+            this.variables.add(variable);
+        }
+
+        return slot;
+    }
+
+    private int constant(String operand) throws Exception {
+        try {
+            return Integer.parseInt(operand);
+        } catch (NumberFormatException e) {
+            throw new Exception("\nError at line " + this.line + ": integer expected instead of '" + operand + "'");
+        }
+    }
+
+    private float floatConstant(String operand) throws Exception {
+        try {
+            return Float.parseFloat(operand);
+        } catch (NumberFormatException e) {
+            throw new Exception("\nError at line " + this.line + ": float expected instead of '" + operand + "'");
+        }
+    }
+
+    private void emit(int value) {
+        if (this.size == this.code.length) {
+            this.code = Arrays.copyOf(this.code, this.size * 2);
+        }
+
+        this.code[this.size++] = value;
+    }
+
+    private Program program() throws Exception {
+        // The machine must never run past the end of the code (a program that loops forever ends with goto)
+        if (this.last < 0 || !Opcode.endsBlock(this.last)) {
+            throw new Exception("\nError at line " + this.line + ": halt expected");
+        }
+
+        for (int i = 0; i < this.jumps.size(); i++) {
+            Integer target = this.labels.get(this.targets.get(i));
+
+            if (target == null) {
+                throw new Exception("\nError at line " + this.lines.get(i) + ": label '" + this.targets.get(i) + "' is not defined");
+            }
+
+            if (target == this.size) {
+                throw new Exception("\nError at line " + this.lines.get(i) + ": label '" + this.targets.get(i) + "' is not followed by an instruction");
+            }
+
+            this.code[this.jumps.get(i)] = target;
+        }
+
+        // Slots without a name are named by their number
+        String[] variables = this.variables.toArray(new String[0]);
+
+        for (int slot = 0; slot < variables.length; slot++) {
+            if (variables[slot] == null) {
+                variables[slot] = String.valueOf(slot);
+            }
+        }
+
+        int[] types = new int[variables.length];
+
+        for (int slot = this.floats.nextSetBit(0); slot >= 0; slot = this.floats.nextSetBit(slot + 1)) {
+            types[slot] = SymbolTable.FLOAT;
+        }
+
+        return new Program(Arrays.copyOf(this.code, this.size), variables, types, this.maxStack);
+    }
+}
@@ -0,0 +1,25 @@
+package stackmachine.vm;
+
+/*
+ *  Binary format of a stack machine program (all counts and operands are unsigned LEB128 varints)
+ *
+ *     magic          'S' 'M' 'B' 'C'
+ *     version        1 byte
+ *     symbols        count, then for each slot: length, UTF-8 bytes of the variable name, type tag byte
+ *     constants      count, then each constant zigzag encoded (floats by their bits)
+ *     max stack      depth of the operand stack the program needs
+ *     code length    number of ints of the decoded code
+ *     code           opcode byte, followed by a slot (addressof, iloadvar, ...), a constant pool index (ipush, fpush)
+ *                    or the code index of the target (goto, iftrue, ...)
+ *
+ *  Version 2 has the typed instruction set and the type tags of the symbols, version 3 adds the jumps.
+ *
+ */
+
+final class Bytecode {
+    static final byte[] MAGIC = { 'S', 'M', 'B', 'C' };
+    static final int VERSION = 3;
+
+    private Bytecode() {
+    }
+}
@@ -0,0 +1,205 @@
+package stackmachine.vm;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+// Loads a binary program by memory-mapping the file and decoding it straight into the int code of a Program
+
+public class BytecodeLoader implements IBytecodeLoader {
+
+    @Override
+    public boolean isBytecode(String fileName) throws Exception {
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(Bytecode.MAGIC.length);
+
+            while (magic.hasRemaining() && channel.read(magic) >= 0);
+
+            return !magic.hasRemaining() && magic.flip().equals(ByteBuffer.wrap(Bytecode.MAGIC));
+        }
+    }
+
+    @Override
+    public Program load(String fileName) throws Exception {
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            return decode(buffer, fileName);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | NegativeArraySizeException e) {
+            throw new Exception("\nStack machine: '" + fileName + "' is truncated or malformed");
+        }
+    }
+
+    private Program decode(ByteBuffer buffer, String fileName) throws Exception {
+        for (byte b : Bytecode.MAGIC) {
+            if (buffer.get() != b) {
+                throw new Exception("\nStack machine: '" + fileName + "' is not a bytecode file");
+            }
+        }
+
+        if (buffer.get() != Bytecode.VERSION) {
+            throw new Exception("\nStack machine: unsupported bytecode version in '" + fileName + "'");
+        }
+
+        String[] variables = new String[length(buffer, fileName)];
+        int[] types = new int[variables.length];
+
+        for (int slot = 0; slot < variables.length; slot++) {
+            byte[] name = new byte[length(buffer, fileName)];
+
+            buffer.get(name);
+            variables[slot] = new String(name, StandardCharsets.UTF_8);
+            types[slot] = buffer.get();
+        }
+
+        int[] constants = new int[length(buffer, fileName)];
+
+        for (int i = 0; i < constants.length; i++) {
+            int value = readVarint(buffer);
+
+            constants[i] = (value >>> 1) ^ -(value & 1);
+        }
+
+        int maxStack = readVarint(buffer);
+        int[] code = new int[length(buffer, fileName)];
+
+        // Operands are validated here so the machine can run without bounds checks of its own
+        boolean[] instructions = new boolean[code.length];
+        int pc = 0;
+        int opcode = -1;
+
+        while (pc < code.length) {
+            opcode = buffer.get() & 0xFF;
+
+            if (opcode >= Opcode.count()) {
+                throw new Exception("\nStack machine: invalid opcode " + opcode + " in '" + fileName + "'");
+            }
+
+            instructions[pc] = true;
+            code[pc++] = opcode;
+
+            if (Opcode.hasConstant(opcode)) {
+                code[pc++] = constants[index(readVarint(buffer), constants.length, fileName)];
+            } else if (Opcode.hasTarget(opcode)) {
+                code[pc++] = index(readVarint(buffer), code.length, fileName);
+            } else if (Opcode.hasOperand(opcode)) {
+                code[pc++] = index(readVarint(buffer), variables.length, fileName);
+            }
+        }
+
+        if (opcode < 0 || !Opcode.endsBlock(opcode)) {
+            throw new Exception("\nStack machine: '" + fileName + "' does not end with halt");
+        }
+
+        // A jump must land on an instruction, not on an operand
+        boolean[] targets = new boolean[code.length];
+
+        for (pc = 0; pc < code.length; pc++) {
+            if (instructions[pc] && Opcode.hasTarget(code[pc])) {
+                if (!instructions[code[pc + 1]]) {
+                    throw new Exception("\nStack machine: jump into an operand in '" + fileName + "'");
+                }
+
+                targets[code[pc + 1]] = true;
+            }
+        }
+
+        if (maxStack != maxStack(code, instructions, targets, fileName)) {
+            throw new Exception("\nStack machine: wrong maximum stack depth in '" + fileName + "'");
+        }
+
+        return new Program(code, variables, types, maxStack);
+    }
+
+    // The stack depths as the Assembler follows them: the targets of the jumps are its labels, every way
+    // into one must leave the same depth and no instruction may pop an empty stack
+    private static int maxStack(int[] code, boolean[] instructions, boolean[] targets, String fileName) throws Exception {
+        int[] depths = new int[code.length];
+        int depth = 0;
+        int maxStack = 0;
+        boolean reachable = true;
+
+        Arrays.fill(depths, -1);
+
+        for (int pc = 0; pc < code.length; pc++) {
+            if (!instructions[pc]) {
+                continue;
+            }
+
+            if (targets[pc]) {
+                if (!reachable) {
+                    depth = Math.max(depths[pc], 0);
+                    reachable = true;
+                }
+
+                depth(depths, pc, depth, fileName);
+            }
+
+            depth = depth + Opcode.stackEffect(code[pc]);
+
+            if (depth < 0) {
+                throw new Exception("\nStack machine: stack underflow at " + pc + " in '" + fileName + "'");
+            }
+
+            maxStack = Math.max(maxStack, depth);
+
+            if (Opcode.hasTarget(code[pc])) {
+                depth(depths, code[pc + 1], depth, fileName);
+            }
+
+            if (Opcode.endsBlock(code[pc])) {
+                reachable = false;
+            }
+        }
+
+        return maxStack;
+    }
+
+    private static void depth(int[] depths, int target, int depth, String fileName) throws Exception {
+        if (depths[target] < 0) {
+            depths[target] = depth;
+        } else if (depths[target] != depth) {
+            throw new Exception("\nStack machine: stack depth " + depth + " at " + target + " instead of " + depths[target] + " in '" + fileName + "'");
+        }
+    }
+
+    // A count of what follows, each takes at least a byte of the file
+    private static int length(ByteBuffer buffer, String fileName) throws Exception {
+        int length = readVarint(buffer);
+
+        if (length < 0 || length > buffer.remaining()) {
+            throw new Exception("\nStack machine: '" + fileName + "' is truncated or malformed");
+        }
+
+        return length;
+    }
+
+    private static int index(int index, int length, String fileName) throws Exception {
+        if (index < 0 || index >= length) {
+            throw new Exception("\nStack machine: operand out of range in '" + fileName + "'");
+        }
+
+        return index;
+    }
+
+    private static int readVarint(ByteBuffer buffer) throws Exception {
+        int value = 0;
+
+        for (int shift = 0; shift < 35; shift = shift + 7) {
+            byte b = buffer.get();
+
+            value = value | (b & 0x7F) << shift;
+
+            if (b >= 0) {
+                return value;
+            }
+        }
+
+        throw new Exception("\nStack machine: malformed varint in bytecode");
+    }
+}
@@ -0,0 +1,87 @@
+package stackmachine.vm;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+// Writes a Program in the binary format described in Bytecode
+
+public class BytecodeWriter implements IBytecodeWriter {
+
+    @Override
+    public void write(Program program, String fileName) throws Exception {
+        int[] code = program.getCode();
+
+        // Collect the constants of the push instructions, each distinct value is stored once
+        Map<Integer, Integer> pool = new HashMap<Integer, Integer>();
+        int[] constants = new int[16];
+
+        for (int pc = 0; pc < code.length; pc++) {
+            int opcode = code[pc];
+
+            if (Opcode.hasOperand(opcode)) {
+                pc++;
+
+                if (Opcode.hasConstant(opcode) && !pool.containsKey(code[pc])) {
+                    if (pool.size() == constants.length) {
+                        constants = Arrays.copyOf(constants, constants.length * 2);
+                    }
+
+                    constants[pool.size()] = code[pc];
+                    pool.put(code[pc], pool.size());
+                }
+            }
+        }
+
+        try (OutputStream output = new BufferedOutputStream(Files.newOutputStream(Paths.get(fileName)), 1 << 16)) {
+            output.write(Bytecode.MAGIC);
+            output.write(Bytecode.VERSION);
+
+            writeVarint(output, program.getVariables().length);
+
+            for (int slot = 0; slot < program.getVariables().length; slot++) {
+                byte[] name = program.getVariables()[slot].getBytes(StandardCharsets.UTF_8);
+
+                writeVarint(output, name.length);
+                output.write(name);
+                output.write(program.getTypes()[slot]);
+            }
+
+            writeVarint(output, pool.size());
+
+            for (int i = 0; i < pool.size(); i++) {
+                writeVarint(output, (constants[i] << 1) ^ (constants[i] >> 31));
+            }
+
+            writeVarint(output, program.getMaxStack());
+            writeVarint(output, code.length);
+
+            for (int pc = 0; pc < code.length; pc++) {
+                int opcode = code[pc];
+
+                output.write(opcode);
+
+                if (Opcode.hasConstant(opcode)) {
+                    writeVarint(output, pool.get(code[++pc]));
+                } else if (Opcode.hasOperand(opcode)) {
+                    writeVarint(output, code[++pc]);
+                }
+            }
+        }
+    }
+
+    private static void writeVarint(OutputStream output, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            output.write((value & 0x7F) | 0x80);
+            value = value >>> 7;
+        }
+
+        output.write(value);
+    }
+}
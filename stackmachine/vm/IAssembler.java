@@ -0,0 +1,10 @@
+package stackmachine.vm;
+
+import java.util.List;
+
+public interface IAssembler {
+
+    public Program assemble(String fileName) throws Exception;
+    public Program assemble(List<String> instructions) throws Exception;
+
+}
@@ -0,0 +1,8 @@
+package stackmachine.vm;
+
+public interface IBytecodeLoader {
+
+    public boolean isBytecode(String fileName) throws Exception;
+    public Program load(String fileName) throws Exception;
+
+}
@@ -0,0 +1,7 @@
+package stackmachine.vm;
+
+public interface IBytecodeWriter {
+
+    public void write(Program program, String fileName) throws Exception;
+
+}
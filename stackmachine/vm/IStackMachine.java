@@ -0,0 +1,14 @@
+package stackmachine.vm;
+
+import stackmachine.compiler.sprint2.IIntermediateCode;
+
+public interface IStackMachine {
+
+    public void load(String fileName) throws Exception;
+    public void load(IIntermediateCode code) throws Exception;
+    public void load(Program program);
+    public void run() throws Exception;
+    public int getValue(String variable) throws Exception;
+    public String memory();
+
+}
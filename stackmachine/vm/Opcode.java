@@ -0,0 +1,167 @@
+package stackmachine.vm;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+ *  Instruction set of the stack machine
+ *
+ *  The instructions are typed, the compiler checks the types and picks the instruction, so the machine
+ *  never looks at a value to know what it is. Every value is one int: floats are stored as their bits
+ *  (Float.floatToRawIntBits) and booleans as 0 (false) and 1 (true).
+ *
+ *     halt                   stop the machine
+ *     addressof x            push the address (slot) of the variable x
+ *     iload  fload           replace the address on top of the stack by the value stored at that address
+ *     istore fstore          pop a value and an address, store the value at the address
+ *     ipush n  fpush f       push the constant n (int) or f (float)
+ *     iadd isub imul idiv irem     pop two ints, push the result of the operation
+ *     fadd fsub fmul fdiv frem     pop two floats, push the result of the operation
+ *     iloadvar x  floadvar x       push the value of the variable x          (addressof x; load)
+ *     istorevar x fstorevar x      pop a value and store it in the variable x (addressof x; value; store)
+ *     dup                    push a copy of the value on top of the stack
+ *     ilt ile igt ige ieq ine      pop two ints (or booleans for ieq, ine), push the boolean result of the comparison
+ *     flt fle fgt fge feq fne      pop two floats, push the boolean result of the comparison
+ *     and or                 pop two booleans, push the result of the operation
+ *     not                    replace the boolean on top of the stack by its negation
+ *     i2f                    convert the int on top of the stack to float
+ *     i2f.1                  convert the int below the top of the stack to float
+ *     goto L                 continue at the label L
+ *     iftrue L  iffalse L    pop a boolean, continue at L if it is true (false)
+ *     iflt L ifle L ifgt L ifge L ifeq L ifne L      pop two ints, continue at L if the comparison holds
+ *                                                     (ilt; iftrue L, ...)
+ *
+ *  In the text form a label is its name followed by a colon on a line of its own ("L1:"), the jumps
+ *  refer to it by name. In a Program the operand of a jump is the index of its target in the code.
+ *
+ */
+
+public final class Opcode {
+    public static final int HALT      = 0;
+    public static final int ADDRESSOF = 1;
+    public static final int ILOAD     = 2;
+    public static final int ISTORE    = 3;
+    public static final int IPUSH     = 4;
+    public static final int IADD      = 5;
+    public static final int ISUB      = 6;
+    public static final int IMUL      = 7;
+    public static final int IDIV      = 8;
+    public static final int IREM      = 9;
+    public static final int ILOADVAR  = 10;
+    public static final int ISTOREVAR = 11;
+    public static final int DUP       = 12;
+    public static final int ILT       = 13;
+    public static final int ILE       = 14;
+    public static final int IGT       = 15;
+    public static final int IGE       = 16;
+    public static final int IEQ       = 17;
+    public static final int INE       = 18;
+    public static final int AND       = 19;
+    public static final int OR        = 20;
+    public static final int NOT       = 21;
+    public static final int FLOAD     = 22;
+    public static final int FSTORE    = 23;
+    public static final int FPUSH     = 24;
+    public static final int FADD      = 25;
+    public static final int FSUB      = 26;
+    public static final int FMUL      = 27;
+    public static final int FDIV      = 28;
+    public static final int FREM      = 29;
+    public static final int FLOADVAR  = 30;
+    public static final int FSTOREVAR = 31;
+    public static final int FLT       = 32;
+    public static final int FLE       = 33;
+    public static final int FGT       = 34;
+    public static final int FGE       = 35;
+    public static final int FEQ       = 36;
+    public static final int FNE       = 37;
+    public static final int I2F       = 38;
+    public static final int I2F1      = 39;
+    public static final int GOTO      = 40;
+    public static final int IFTRUE    = 41;
+    public static final int IFFALSE   = 42;
+    public static final int IFLT      = 43;
+    public static final int IFLE      = 44;
+    public static final int IFGT      = 45;
+    public static final int IFGE      = 46;
+    public static final int IFEQ      = 47;
+    public static final int IFNE      = 48;
+
+    private static final String[] MNEMONICS = { "halt", "addressof", "iload", "istore", "ipush", "iadd", "isub", "imul", "idiv", "irem", "iloadvar", "istorevar", "dup",
+                                                "ilt", "ile", "igt", "ige", "ieq", "ine", "and", "or", "not",
+                                                "fload", "fstore", "fpush", "fadd", "fsub", "fmul", "fdiv", "frem", "floadvar", "fstorevar",
+                                                "flt", "fle", "fgt", "fge", "feq", "fne", "i2f", "i2f.1",
+                                                "goto", "iftrue", "iffalse", "iflt", "ifle", "ifgt", "ifge", "ifeq", "ifne" };
+
+    // Number of values each instruction leaves on the stack minus the number it takes from it
+    private static final int[] STACK_EFFECT = { 0, 1, 0, -2, 1, -1, -1, -1, -1, -1, 1, -1, 1,
+                                                -1, -1, -1, -1, -1, -1, -1, -1, 0,
+                                                0, -2, 1, -1, -1, -1, -1, -1, 1, -1,
+                                                -1, -1, -1, -1, -1, -1, 0, 0,
+                                                0, -1, -1, -2, -2, -2, -2, -2, -2 };
+
+    // Conditional jump with the opposite condition, by opcode (ints have no NaN, so not < is >=)
+    private static final int[] NEGATION = { IFFALSE, IFTRUE, IFGE, IFGT, IFLE, IFLT, IFNE, IFEQ };
+
+    private static final Map<String, Integer> OPCODES = new HashMap<String, Integer>();
+
+    static {
+        for (int opcode = 0; opcode < MNEMONICS.length; opcode++) {
+            OPCODES.put(MNEMONICS[opcode], opcode);
+        }
+    }
+
+    private Opcode() {
+    }
+
+    public static int count() {
+        return MNEMONICS.length;
+    }
+
+    // Returns -1 if the mnemonic is not an instruction of the machine
+    public static int valueOf(String mnemonic) {
+        Integer opcode = OPCODES.get(mnemonic);
+
+        return opcode == null ? -1 : opcode;
+    }
+
+    public static String mnemonic(int opcode) {
+        return MNEMONICS[opcode];
+    }
+
+    public static boolean hasOperand(int opcode) {
+        return hasSlot(opcode) || hasConstant(opcode) || hasTarget(opcode);
+    }
+
+    // Instructions whose operand is a constant (an int, or the bits of a float)
+    public static boolean hasConstant(int opcode) {
+        return opcode == IPUSH || opcode == FPUSH;
+    }
+
+    // Instructions whose operand is a variable slot
+    public static boolean hasSlot(int opcode) {
+        return opcode == ADDRESSOF || opcode == ILOADVAR || opcode == ISTOREVAR || opcode == FLOADVAR || opcode == FSTOREVAR;
+    }
+
+    // Jumps, their operand is a label (a code index in a Program)
+    public static boolean hasTarget(int opcode) {
+        return opcode >= GOTO && opcode <= IFNE;
+    }
+
+    public static boolean isConditional(int opcode) {
+        return opcode > GOTO && opcode <= IFNE;
+    }
+
+    // The instruction after these is only reached by a jump
+    public static boolean endsBlock(int opcode) {
+        return opcode == GOTO || opcode == HALT;
+    }
+
+    public static int negate(int opcode) {
+        return NEGATION[opcode - IFTRUE];
+    }
+
+    public static int stackEffect(int opcode) {
+        return STACK_EFFECT[opcode];
+    }
+}
@@ -0,0 +1,59 @@
+package stackmachine.vm;
+
+import stackmachine.compiler.SymbolTable;
+
+// Executable form of a stack machine program: opcodes followed by their operand (if any) in one int array
+
+public class Program {
+    private final int[] code;
+    private final String[] variables;
+    private final int[] types;
+    private final int maxStack;
+
+    public Program(int[] code, String[] variables, int maxStack) {
+        this(code, variables, new int[variables.length], maxStack);
+    }
+
+    public Program(int[] code, String[] variables, int[] types, int maxStack) {
+        this.code = code;
+        this.variables = variables;
+        this.types = types;
+        this.maxStack = maxStack;
+    }
+
+    public int[] getCode() {
+        return this.code;
+    }
+
+    // Name of the variable stored in each slot
+    public String[] getVariables() {
+        return this.variables;
+    }
+
+    // Type tag (SymbolTable.INT, FLOAT or BOOLEAN) of the variable stored in each slot, the machine only
+    // needs it to show the memory, the instructions already know the type of their operands
+    public int[] getTypes() {
+        return this.types;
+    }
+
+    public int getMaxStack() {
+        return this.maxStack;
+    }
+
+    public static String typeName(int type) {
+        switch (type) {
+            case SymbolTable.FLOAT:   return "float";
+            case SymbolTable.BOOLEAN: return "boolean";
+            default:                  return "int";
+        }
+    }
+
+    // Returns SymbolTable.INT for anything but float and boolean
+    public static int typeOf(String name) {
+        switch (name) {
+            case "float":   return SymbolTable.FLOAT;
+            case "boolean": return SymbolTable.BOOLEAN;
+            default:        return SymbolTable.INT;
+        }
+    }
+}
@@ -0,0 +1,297 @@
+package stackmachine.vm;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import stackmachine.compiler.SymbolTable;
+import stackmachine.compiler.sprint2.IIntermediateCode;
+
+/*
+ *  Interpreter for the code generated by the stack machine compiler (Sprint 2)
+ *
+ *  The operand stack and the variables (one slot per variable) are int arrays allocated once when
+ *  a program is loaded, so the dispatch loop in run() does not allocate. Floats are kept as their bits,
+ *  the typed instructions convert them only around the arithmetic, so no value is ever tested for its type.
+ *
+ */
+
+public class StackMachine implements IStackMachine {
+    private Program program;
+    private int[] stack;
+    private int[] memory;
+
+    @Override
+    public void load(String fileName) throws Exception {
+        IBytecodeLoader loader = new BytecodeLoader();
+
+        // Binary programs are recognized by their magic number, anything else is assembled as text
+        if (loader.isBytecode(fileName)) {
+            load(loader.load(fileName));
+        } else {
+            Program program = new Assembler().assemble(fileName);
+
+            // The compiler can write the names (and types) of the slots next to the code for debugging
+            Path names = Paths.get(fileName + ".names");
+
+            if (Files.exists(names)) {
+                String[] variables = Files.readAllLines(names, StandardCharsets.UTF_8).toArray(new String[0]);
+                int[] types = new int[variables.length];
+
+                // One slot per line: the name, optionally followed by the type
+                for (int slot = 0; slot < variables.length; slot++) {
+                    int space = variables[slot].indexOf(' ');
+
+                    if (space >= 0) {
+                        types[slot] = Program.typeOf(variables[slot].substring(space + 1).trim());
+                        variables[slot] = variables[slot].substring(0, space);
+                    }
+                }
+
+                if (variables.length >= program.getVariables().length) {
+                    program = new Program(program.getCode(), variables, types, program.getMaxStack());
+                }
+            }
+
+            load(program);
+        }
+    }
+
+    @Override
+    public void load(IIntermediateCode code) throws Exception {
+        load(new Assembler().assemble(code.getInstructions()));
+    }
+
+    @Override
+    public void load(Program program) {
+        this.program = program;
+        this.stack = new int[program.getMaxStack()];
+        this.memory = new int[program.getVariables().length];
+    }
+
+    @Override
+    public void run() throws Exception {
+        if (this.program == null) {
+            throw new Exception("\nStack machine: no program loaded");
+        }
+
+        // Local copies keep the arrays and registers out of the heap inside the loop
+        final int[] code = this.program.getCode();
+        final int[] stack = this.stack;
+        final int[] memory = this.memory;
+
+        int pc = 0;
+        int sp = 0;
+
+        while (true) {
+            switch (code[pc++]) {
+                case Opcode.HALT:
+                    return;
+                case Opcode.ADDRESSOF:
+                case Opcode.IPUSH:
+                case Opcode.FPUSH:
+                    stack[sp++] = code[pc++];
+                    break;
+                case Opcode.ILOAD:
+                case Opcode.FLOAD:
+                    stack[sp - 1] = memory[stack[sp - 1]];
+                    break;
+                case Opcode.ISTORE:
+                case Opcode.FSTORE:
+                    memory[stack[sp - 2]] = stack[sp - 1];
+                    sp = sp - 2;
+                    break;
+                case Opcode.ILOADVAR:
+                case Opcode.FLOADVAR:
+                    stack[sp++] = memory[code[pc++]];
+                    break;
+                case Opcode.ISTOREVAR:
+                case Opcode.FSTOREVAR:
+                    memory[code[pc++]] = stack[--sp];
+                    break;
+                case Opcode.DUP:
+                    stack[sp] = stack[sp - 1];
+                    sp++;
+                    break;
+                case Opcode.IADD:
+                    sp--;
+                    stack[sp - 1] = stack[sp - 1] + stack[sp];
+                    break;
+                case Opcode.ISUB:
+                    sp--;
+                    stack[sp - 1] = stack[sp - 1] - stack[sp];
+                    break;
+                case Opcode.IMUL:
+                    sp--;
+                    stack[sp - 1] = stack[sp - 1] * stack[sp];
+                    break;
+                case Opcode.IDIV:
+                    sp--;
+                    if (stack[sp] == 0) throw new Exception("\nStack machine: division by zero");
+                    stack[sp - 1] = stack[sp - 1] / stack[sp];
+                    break;
+                case Opcode.IREM:
+                    sp--;
+                    if (stack[sp] == 0) throw new Exception("\nStack machine: division by zero");
+                    stack[sp - 1] = stack[sp - 1] % stack[sp];
+                    break;
+                case Opcode.ILT:
+                    sp--;
+                    stack[sp - 1] = stack[sp - 1] < stack[sp] ? 1 : 0;
+                    break;
+                case Opcode.ILE:
+                    sp--;
+                    stack[sp - 1] = stack[sp - 1] <= stack[sp] ? 1 : 0;
+                    break;
+                case Opcode.IGT:
+                    sp--;
+                    stack[sp - 1] = stack[sp - 1] > stack[sp] ? 1 : 0;
+                    break;
+                case Opcode.IGE:
+                    sp--;
+                    stack[sp - 1] = stack[sp - 1] >= stack[sp] ? 1 : 0;
+                    break;
+                case Opcode.IEQ:
+                    sp--;
+                    stack[sp - 1] = stack[sp - 1] == stack[sp] ? 1 : 0;
+                    break;
+                case Opcode.INE:
+                    sp--;
+                    stack[sp - 1] = stack[sp - 1] != stack[sp] ? 1 : 0;
+                    break;
+                // Booleans are 0 or 1, so the logical operators are the bitwise ones
+                case Opcode.AND:
+                    sp--;
+                    stack[sp - 1] = stack[sp - 1] & stack[sp];
+                    break;
+                case Opcode.OR:
+                    sp--;
+                    stack[sp - 1] = stack[sp - 1] | stack[sp];
+                    break;
+                case Opcode.NOT:
+                    stack[sp - 1] = stack[sp - 1] ^ 1;
+                    break;
+                case Opcode.FADD:
+                    sp--;
+                    stack[sp - 1] = Float.floatToRawIntBits(Float.intBitsToFloat(stack[sp - 1]) + Float.intBitsToFloat(stack[sp]));
+                    break;
+                case Opcode.FSUB:
+                    sp--;
+                    stack[sp - 1] = Float.floatToRawIntBits(Float.intBitsToFloat(stack[sp - 1]) - Float.intBitsToFloat(stack[sp]));
+                    break;
+                case Opcode.FMUL:
+                    sp--;
+                    stack[sp - 1] = Float.floatToRawIntBits(Float.intBitsToFloat(stack[sp - 1]) * Float.intBitsToFloat(stack[sp]));
+                    break;
+                case Opcode.FDIV:
+                    sp--;
+                    stack[sp - 1] = Float.floatToRawIntBits(Float.intBitsToFloat(stack[sp - 1]) / Float.intBitsToFloat(stack[sp]));
+                    break;
+                case Opcode.FREM:
+                    sp--;
+                    stack[sp - 1] = Float.floatToRawIntBits(Float.intBitsToFloat(stack[sp - 1]) % Float.intBitsToFloat(stack[sp]));
+                    break;
+                case Opcode.FLT:
+                    sp--;
+                    stack[sp - 1] = Float.intBitsToFloat(stack[sp - 1]) < Float.intBitsToFloat(stack[sp]) ? 1 : 0;
+                    break;
+                case Opcode.FLE:
+                    sp--;
+                    stack[sp - 1] = Float.intBitsToFloat(stack[sp - 1]) <= Float.intBitsToFloat(stack[sp]) ? 1 : 0;
+                    break;
+                case Opcode.FGT:
+                    sp--;
+                    stack[sp - 1] = Float.intBitsToFloat(stack[sp - 1]) > Float.intBitsToFloat(stack[sp]) ? 1 : 0;
+                    break;
+                case Opcode.FGE:
+                    sp--;
+                    stack[sp - 1] = Float.intBitsToFloat(stack[sp - 1]) >= Float.intBitsToFloat(stack[sp]) ? 1 : 0;
+                    break;
+                case Opcode.FEQ:
+                    sp--;
+                    stack[sp - 1] = Float.intBitsToFloat(stack[sp - 1]) == Float.intBitsToFloat(stack[sp]) ? 1 : 0;
+                    break;
+                case Opcode.FNE:
+                    sp--;
+                    stack[sp - 1] = Float.intBitsToFloat(stack[sp - 1]) != Float.intBitsToFloat(stack[sp]) ? 1 : 0;
+                    break;
+                case Opcode.I2F:
+                    stack[sp - 1] = Float.floatToRawIntBits((float) stack[sp - 1]);
+                    break;
+                case Opcode.I2F1:
+                    stack[sp - 2] = Float.floatToRawIntBits((float) stack[sp - 2]);
+                    break;
+                case Opcode.GOTO:
+                    pc = code[pc];
+                    break;
+                case Opcode.IFTRUE:
+                    pc = stack[--sp] != 0 ? code[pc] : pc + 1;
+                    break;
+                case Opcode.IFFALSE:
+                    pc = stack[--sp] == 0 ? code[pc] : pc + 1;
+                    break;
+                case Opcode.IFLT:
+                    sp = sp - 2;
+                    pc = stack[sp] < stack[sp + 1] ? code[pc] : pc + 1;
+                    break;
+                case Opcode.IFLE:
+                    sp = sp - 2;
+                    pc = stack[sp] <= stack[sp + 1] ? code[pc] : pc + 1;
+                    break;
+                case Opcode.IFGT:
+                    sp = sp - 2;
+                    pc = stack[sp] > stack[sp + 1] ? code[pc] : pc + 1;
+                    break;
+                case Opcode.IFGE:
+                    sp = sp - 2;
+                    pc = stack[sp] >= stack[sp + 1] ? code[pc] : pc + 1;
+                    break;
+                case Opcode.IFEQ:
+                    sp = sp - 2;
+                    pc = stack[sp] == stack[sp + 1] ? code[pc] : pc + 1;
+                    break;
+                case Opcode.IFNE:
+                    sp = sp - 2;
+                    pc = stack[sp] != stack[sp + 1] ? code[pc] : pc + 1;
+                    break;
+                default:
+                    throw new Exception("\nStack machine: invalid opcode " + code[pc - 1] + " at " + (pc - 1));
+            }
+        }
+    }
+
+    // The value of a float variable is returned as its bits (Float.intBitsToFloat gives the float)
+    @Override
+    public int getValue(String variable) throws Exception {
+        String[] variables = this.program.getVariables();
+
+        for (int slot = 0; slot < variables.length; slot++) {
+            if (variables[slot].equals(variable)) {
+                return this.memory[slot];
+            }
+        }
+
+        throw new Exception("\nStack machine: variable '" + variable + "' is not defined");
+    }
+
+    @Override
+    public String memory() {
+        StringBuilder memory = new StringBuilder();
+        String[] variables = this.program.getVariables();
+        int[] types = this.program.getTypes();
+
+        for (int slot = 0; slot < variables.length; slot++) {
+            memory.append("<'").append(variables[slot]).append("', ");
+
+            if (types[slot] == SymbolTable.FLOAT) {
+                memory.append(Float.intBitsToFloat(this.memory[slot]));
+            } else {
+                memory.append(this.memory[slot]);
+            }
+
+            memory.append("> \n");
+        }
+
+        return memory.toString();
+    }
+}
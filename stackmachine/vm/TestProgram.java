@@ -0,0 +1,36 @@
+package stackmachine.vm;
+
+import stackmachine.compiler.sprint2.StackMachineCompiler;
+
+public class TestProgram {
+
+	public static void main(String[] args) {
+		try {
+
+			StackMachineCompiler stackMachineCompiler = new StackMachineCompiler();
+
+			// Write the names of the slots next to the code, so the memory is printed with the variable names
+			stackMachineCompiler.setNameTable(true);
+
+			stackMachineCompiler.compile("program test assignment.txt", "sm test assignment.txt");
+
+			IStackMachine stackMachine = new StackMachine();
+
+			stackMachine.load("sm test assignment.txt");
+			stackMachine.run();
+
+			System.out.println("The memory \n\n" + stackMachine.memory());
+
+			stackMachineCompiler.compileToBytecode("program test assignment.txt", "smbc test assignment.txt");
+
+			stackMachine.load("smbc test assignment.txt");
+			stackMachine.run();
+
+			System.out.println("The memory (bytecode) \n\n" + stackMachine.memory());
+
+		} catch (Exception e) {
+			System.out.println(e.getMessage());
+		}
+	}
+
+}
@@ -3,5 +3,6 @@ package translator1;
 public interface IPostfixTranslator {
     
     public String translate() throws Exception;
+    public void translate(Appendable output) throws Exception;
 
 }
\ No newline at end of file
@@ -1,5 +1,13 @@
 package translator1;
 
+import java.io.IOException;
+import java.util.Arrays;
+
+import instrumentation.CompilerMetrics;
+import instrumentation.ICompilerMetrics;
+import instrumentation.InstrumentedScanner;
+import instrumentation.Measurement;
+import lexer.TokenKind;
 import slu.compiler.*;
 
 /* 
@@ -42,80 +50,209 @@ import slu.compiler.*;
  *  
  *  The expression 9 - 5 + 2 * 3 is translated into 9 5 - 2 3 * +
  *  
+ *  With constant folding every subexpression synthesizes the attribute constant, the operands are
+ *  kept pending until an operator is added, and 9 - 5 + 2 * 3 is translated into 10
+ *  
  */
 
 public class PostfixTranslator implements IPostfixTranslator {
+    public static final int DEFAULT_NESTING_LIMIT = 100000;
+
+    // Binary operators by token kind: the operator and the precedence (0 for the other tokens)
+    private static final char[] OPERATORS = new char[TokenKind.count()];
+    private static final int[] PRECEDENCE = new int[TokenKind.count()];
+
+    static {
+        OPERATORS[TokenKind.ADD] = '+';
+        OPERATORS[TokenKind.SUBTRACT] = '-';
+        OPERATORS[TokenKind.MULTIPLY] = '*';
+        OPERATORS[TokenKind.DIVIDE] = '/';
+        OPERATORS[TokenKind.MODULUS] = '%';
+
+        PRECEDENCE[TokenKind.ADD] = 1;
+        PRECEDENCE[TokenKind.SUBTRACT] = 1;
+        PRECEDENCE[TokenKind.MULTIPLY] = 2;
+        PRECEDENCE[TokenKind.DIVIDE] = 2;
+        PRECEDENCE[TokenKind.MODULUS] = 2;
+    }
+
     private IToken token;
+    // Integer kind of the current token, the parser decides on it instead of the token name
+    private int kind;
     private IScanner scanner;
-    private String postfix;
+    // Output of the translation, the postfix expression is appended as the expression is parsed
+    private Appendable postfix;
+    // Fold constant subexpressions into a single value (every operand is an int, so the whole expression folds)
+    private boolean fold;
+    // Values of the operands not yet added to the postfix expression
+    private int[] constants = new int[16];
+    private int pending;
+    // Operators and open parentheses of the expression, with the constant attribute of their left operand
+    private int[] stack = new int[16];
+    private boolean[] constant = new boolean[16];
+    // Line of each operator, a division by zero found when it is folded is reported there
+    private int[] lines = new int[16];
+    private int operators;
+    // Deepest the operator stack went, and the operands and operators added to the output
+    private int maxDepth;
+    private long emitted;
+    // Measurement of the translation (null without metrics)
+    private ICompilerMetrics metrics;
+    private Measurement measurement;
+    // Parentheses an expression can nest, a deeper one is an error instead of growing the stack without bound
+    private int nestingLimit = DEFAULT_NESTING_LIMIT;
     
     public PostfixTranslator(IScanner lex) {
+        this(lex, false);
+    }
+
+    public PostfixTranslator(IScanner lex, boolean fold) {
+        this(lex, fold, CompilerMetrics.global());
+    }
+
+    // With metrics (not null) the translation is measured and recorded in them
+    public PostfixTranslator(IScanner lex, boolean fold, ICompilerMetrics metrics) {
+        if (metrics != null) {
+            this.metrics = metrics;
+            this.measurement = metrics.start("expression", "postfix");
+
+            lex = new InstrumentedScanner(lex, this.measurement);
+        }
+
         this.scanner = lex;
         this.token = this.scanner.getToken();
+        this.kind = TokenKind.of(this.token);
+        this.fold = fold;
+    }
+
+    public void setNestingLimit(int nestingLimit) {
+        this.nestingLimit = nestingLimit;
     }
 
     @Override
     public String translate() throws Exception {
-        this.postfix = "";
-        
-        expression();
-        
-        return this.postfix;
+        StringBuilder postfix = new StringBuilder();
+
+        translate(postfix);
+
+        return postfix.toString();
     }
-    
-    private void expression() throws Exception {
-        term(); moreTerms();
+
+    @Override
+    public void translate(Appendable output) throws Exception {
+        this.postfix = output;
+        this.pending = 0;
+        this.operators = 0;
+
+        enter(Measurement.PARSE);
+
+        boolean translated = false;
+
+        try {
+            expression();
+
+            flush();
+
+            translated = true;
+        } finally {
+            record(translated);
+        }
     }
     
-    // term --> factor more-factors
-
-    private void term() throws Exception {
-        factor(); moreFactors();
-    }
-        
-    // pop factors from stack and operate with operator found
-    private void moreTerms() throws Exception {
-        if (this.token.getName().equals("add")) {
-            
-            match("add");
-            
-            term();
-                        
-            this.postfix = this.postfix + " + ";
-            
-            moreTerms();
-
-        } else if (this.token.getName().equals("subtract")) {
-            
-            match("subtract");
-            
-            term();
-
-            this.postfix = this.postfix + " - ";
-            
-            moreTerms();
-        } 
+    // expression -> term moreTerms, term -> factor moreFactors, factor -> (expression) | int
+    //
+    // The productions are not called recursively: the operators waiting for their right operand and the
+    // open parentheses are kept on an explicit stack, and an operator is added once the next one has a
+    // lower precedence, which is the order of the right-recursive SDD.
+    //
+    // Returns true if the expression is constant (its value is then the last pending operand)
+    private boolean expression() throws Exception {
+        int base = this.operators;
+        int nesting = 0;
+
+        while (true) {
+            while (this.kind == TokenKind.OPEN_PARENTHESIS) {
+                if (nesting == this.nestingLimit) {
+                    throw new Exception("\nError at line " + this.scanner.getLine() + ": expression nested too deeply");
+                }
+
+                push(TokenKind.OPEN_PARENTHESIS, false);
+                nesting++;
+
+                match(TokenKind.OPEN_PARENTHESIS);
+            }
+
+            boolean constant = factor();
+
+            // moreFactors and moreTerms, closing the parentheses on the way
+
+            while (true) {
+                if (PRECEDENCE[this.kind] > 0) {
+                    constant = reduce(base, PRECEDENCE[this.kind], constant);
+
+                    push(this.kind, constant);
+
+                    match(this.kind);
+                    break;
+                }
+
+                constant = reduce(base, 1, constant);
+
+                if (this.operators == base) {
+                    return constant;
+                }
+
+                match(TokenKind.CLOSED_PARENTHESIS);
+
+                this.operators--;
+                nesting--;
+            }
+        }
     }
 
-    // push factor into stack
-    private void factor() throws Exception {
-        if (this.token.getName().equals("open-parenthesis")) {
+    // Add the operators on the stack down to the last open parenthesis with a precedence of at least
+    // the given one, the right operand of the one on top is given and the result returned
+    private boolean reduce(int base, int precedence, boolean right) throws Exception {
+        while (this.operators > base && PRECEDENCE[this.stack[this.operators - 1]] >= precedence) {
+            this.operators--;
 
-            match("open-parenthesis");
-            expression();
-            match("closed-parenthesis");
+            right = operation(OPERATORS[this.stack[this.operators]], this.constant[this.operators], right, this.lines[this.operators]);
         }
-        else if (this.token.getName().equals("int")) {
+
+        return right;
+    }
+
+    // Push an operator (or open parenthesis) with the constant attribute of its left operand
+    private void push(int kind, boolean constant) {
+        if (this.operators == this.stack.length) {
+            this.stack = Arrays.copyOf(this.stack, this.operators * 2);
+            this.constant = Arrays.copyOf(this.constant, this.operators * 2);
+            this.lines = Arrays.copyOf(this.lines, this.operators * 2);
+        }
+
+        this.stack[this.operators] = kind;
+        this.constant[this.operators] = constant;
+        this.lines[this.operators] = this.scanner.getLine();
+        this.operators++;
+
+        if (this.operators > this.maxDepth) {
+            this.maxDepth = this.operators;
+        }
+    }
+
+    private boolean factor() throws Exception {
+        if (this.kind == TokenKind.INT) {
             // Declare a variable number of type IntegerNumber to get the value of a token "int"
             // Down Cast IToken --> Integer Number 
             IntegerNumber number = (IntegerNumber) this.token;
 
             // The value of the token is given by the method getValue()
-            // Add value of token to the Class postfix string
-            // push into stack
-            this.postfix = this.postfix + number.getValue() + " ";
+            // Add value of token to the Class postfix string (delayed until we know if it is folded)
+            constant(number.getValue());
 
-            match("int");
+            match(TokenKind.INT);
+
+            return true;
         }
         // factor does not produce epsilon so throw error if no match
         else {
@@ -123,45 +260,86 @@ public class PostfixTranslator implements IPostfixTranslator {
         }
     }
 
-    // pop factors from stack and operate with operator found
-    // produces four rules (like more terms, but * factor instead of + terms)
-    private void moreFactors() throws Exception {
-        if (this.token.getName().equals("multiply")) {
-            match("multiply");
+    // Fold the operation if both operands are constant, otherwise add the operator to the postfix expression
+    private boolean operation(char operator, boolean left, boolean right, int line) throws Exception {
+        if (this.fold && left && right) {
+            int num2 = this.constants[--this.pending];
+            int num1 = this.constants[--this.pending];
+
+            if (num2 == 0 && (operator == '/' || operator == '%')) {
+                throw new Exception("\nError at line " + line + ": division by zero");
+            }
 
-            factor();
+            constant(fold(num1, num2, operator));
 
-            this.postfix = this.postfix + " * ";
-            
-            moreFactors();
+            return true;
         }
-        else if(this.token.getName().equals("divide")) {
-            match("divide");
 
-            factor();
+        flush();
 
-            this.postfix = this.postfix + " / ";
+        this.emitted++;
+        this.postfix.append(' ').append(operator).append(' ');
 
-            moreFactors();
+        return false;
+    }
+
+    private int fold(int num1, int num2, char operator) {
+        switch (operator) {
+            case '+': return num1 + num2;
+            case '-': return num1 - num2;
+            case '*': return num1 * num2;
+            case '/': return num1 / num2;
+            default:  return num1 % num2;
         }
-        else if (this.token.getName().equals("modulus")) {
-            match("modulus");
+    }
 
-            factor();
+    private void constant(int value) {
+        if (this.pending == this.constants.length) {
+            this.constants = Arrays.copyOf(this.constants, this.pending * 2);
+        }
+
+        this.constants[this.pending++] = value;
+    }
 
-            this.postfix = this.postfix + " % ";
+    // Add the pending operands to the postfix expression in the order they were found
+    private void flush() throws IOException {
+        this.emitted = this.emitted + this.pending;
 
-            moreFactors();
+        for (int i = 0; i < this.pending; i++) {
+            this.postfix.append(Integer.toString(this.constants[i])).append(' ');
         }
+
+        this.pending = 0;
     }
     
-    private void match(String tokenName) throws Exception {
-        if (this.token.getName().equals(tokenName)) {
+    private void enter(int phase) {
+        if (this.measurement != null) {
+            this.measurement.enter(phase);
+        }
+    }
+
+    // The translator parses one expression, so it is recorded once
+    private void record(boolean translated) {
+        if (this.measurement != null) {
+            this.measurement.countInstructions(this.emitted);
+            this.measurement.setMaxDepth(this.maxDepth);
+            this.measurement.setFailed(!translated);
+
+            this.metrics.record(this.measurement);
+            this.measurement = null;
+        }
+    }
+
+    private void match(int kind) throws Exception {
+        if (this.kind == kind) {
             // move onto the next token
             this.token = this.scanner.getToken();
+            this.kind = TokenKind.of(this.token);
         } 
         // throw error as source code is incorrect
         else {
+            String tokenName = TokenKind.name(kind);
+
             throw new Exception("\nError at line " + this.scanner.getLine() + ": " + (this.scanner.getLexeme(tokenName).equals("null") ? "token " + tokenName +
                                 " is not defined in 'lexicon.txt'" : tokenName + " expected"));
         }
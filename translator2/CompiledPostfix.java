@@ -0,0 +1,107 @@
+package translator2;
+
+/*
+ *  Postfix expression compiled by the PostfixTranslator, ready to be evaluated any number of times
+ *
+ *  The code is a sequence of int instructions: PUSH followed by the value of the operand, or the
+ *  character of an operator ('+', '-', '*', '/', '%'). The 9 - 5 + 2 * 3 is compiled into
+ *
+ *     PUSH 9 PUSH 5 '-' PUSH 2 PUSH 3 '*' '+'
+ *
+ *  A compiled expression never changes, so it can be evaluated from many threads at once. Every
+ *  thread evaluates on its own int[] operand stack, which grows to the deepest expression it met.
+ *
+ *  With -Dtranslator2.trace=true every step of the evaluation is printed (the check is a constant,
+ *  so the tracing code is dropped by the JIT when it is off).
+ *
+ */
+
+public final class CompiledPostfix {
+    static final int PUSH = 0;
+
+    private static final boolean TRACE = Boolean.getBoolean("translator2.trace");
+
+    private static final ThreadLocal<int[]> STACK = ThreadLocal.withInitial(() -> new int[16]);
+
+    private final int[] code;
+    private final int maxStack;
+
+    CompiledPostfix(int[] code, int maxStack) {
+        this.code = code;
+        this.maxStack = maxStack;
+    }
+
+    public int evaluate() throws Exception {
+        int[] stack = STACK.get();
+
+        if (stack.length < this.maxStack) {
+            stack = new int[Math.max(this.maxStack, stack.length * 2)];
+            STACK.set(stack);
+        }
+
+        if (TRACE) {
+            System.out.println("postfix string: " + this);
+        }
+
+        int[] code = this.code;
+        int top = 0;
+        int pc = 0;
+
+        while (pc < code.length) {
+            int instruction = code[pc++];
+
+            if (instruction == PUSH) {
+                stack[top++] = code[pc++];
+
+                if (TRACE) {
+                    System.out.println("Pushing number into stack: " + stack[top - 1]);
+                }
+            } else {
+                top--;
+                stack[top - 1] = PostfixTranslator.operate(stack[top - 1], stack[top], (char) instruction);
+
+                if (TRACE) {
+                    System.out.println("Operator trigger: " + (char) instruction);
+                    System.out.println("Result into stack: " + stack[top - 1]);
+                }
+            }
+        }
+
+        return stack[0];
+    }
+
+    public int getMaxStack() {
+        return this.maxStack;
+    }
+
+    // Number of operands and operators
+    public int size() {
+        int size = 0;
+
+        for (int pc = 0; pc < this.code.length; pc++) {
+            if (this.code[pc] == PUSH) {
+                pc++;
+            }
+
+            size++;
+        }
+
+        return size;
+    }
+
+    // The postfix expression, as written by the translator
+    @Override
+    public String toString() {
+        StringBuilder postfix = new StringBuilder();
+
+        for (int pc = 0; pc < this.code.length; pc++) {
+            if (this.code[pc] == PUSH) {
+                postfix.append(this.code[++pc]).append(' ');
+            } else {
+                postfix.append(' ').append((char) this.code[pc]).append(' ');
+            }
+        }
+
+        return postfix.toString();
+    }
+}
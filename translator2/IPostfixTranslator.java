@@ -3,6 +3,9 @@ package translator2;
 public interface IPostfixTranslator {
     
     public String translate() throws Exception;
+    public void translate(Appendable output) throws Exception;
     public int evaluate() throws Exception;
+    public CompiledPostfix compile() throws Exception;
+    public int interpret() throws Exception;
 
 }
\ No newline at end of file
@@ -0,0 +1,130 @@
+package translator2;
+
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+
+/*
+ *  Evaluator of a postfix expression read from a stream, in the format written by the PostfixTranslator
+ *
+ *  The input is read through a buffer of BUFFER_SIZE characters (or bytes) and parsed one character
+ *  at a time, so a number can be split by the end of the buffer. Only the operand stack is kept in
+ *  memory, which is as deep as the expression and not as long.
+ *
+ *  A '-' directly followed by a digit is the sign of a (folded) negative number, otherwise it is
+ *  the operator. The operators are those of PostfixTranslator.operate.
+ *
+ */
+
+public final class PostfixEvaluator {
+    private static final int BUFFER_SIZE = 8192;
+
+    private int[] stack = new int[16];
+    private int top;
+
+    // The number being read, and whether a '-' was just read
+    private boolean number;
+    private boolean negative;
+    private int value;
+    private boolean minus;
+
+    private PostfixEvaluator() {
+    }
+
+    public static int evaluate(Reader input) throws Exception {
+        PostfixEvaluator evaluator = new PostfixEvaluator();
+        char[] buffer = new char[BUFFER_SIZE];
+        int count;
+
+        while ((count = input.read(buffer)) >= 0) {
+            for (int i = 0; i < count; i++) {
+                evaluator.next(buffer[i]);
+            }
+        }
+
+        return evaluator.end();
+    }
+
+    // The postfix expression is ASCII, the bytes are the characters
+    public static int evaluate(ReadableByteChannel input) throws Exception {
+        PostfixEvaluator evaluator = new PostfixEvaluator();
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+        while (input.read(buffer) >= 0) {
+            buffer.flip();
+
+            while (buffer.hasRemaining()) {
+                evaluator.next((char) (buffer.get() & 0xFF));
+            }
+
+            buffer.clear();
+        }
+
+        return evaluator.end();
+    }
+
+    private void next(char ch) throws Exception {
+        if (ch >= '0' && ch <= '9') {
+            if (!this.number) {
+                this.number = true;
+                this.negative = this.minus;
+                this.minus = false;
+                this.value = 0;
+            }
+
+            this.value = (this.value * 10) + (ch - '0');
+
+            return;
+        }
+
+        if (this.number) {
+            push(this.negative ? -this.value : this.value);
+            this.number = false;
+        }
+
+        if (this.minus) {
+            this.minus = false;
+            operation('-');
+        }
+
+        if (ch == ' ' || ch == '\t' || ch == '\r' || ch == '\n') {
+            return;
+        }
+
+        if (ch == '-') {
+            this.minus = true;
+        } else if (ch == '+' || ch == '*' || ch == '/' || ch == '%') {
+            operation(ch);
+        } else {
+            throw new Exception("Invalid character in expression: " + ch);
+        }
+    }
+
+    private int end() throws Exception {
+        next(' ');
+
+        if (this.top == 0) {
+            throw new Exception("Empty expression");
+        }
+
+        return this.stack[this.top - 1];
+    }
+
+    private void operation(char operator) throws Exception {
+        if (this.top < 2) {
+            throw new Exception("Missing operand for operator " + operator);
+        }
+
+        this.top--;
+        this.stack[this.top - 1] = PostfixTranslator.operate(this.stack[this.top - 1], this.stack[this.top], operator);
+    }
+
+    private void push(int value) {
+        if (this.top == this.stack.length) {
+            this.stack = Arrays.copyOf(this.stack, this.top * 2);
+        }
+
+        this.stack[this.top++] = value;
+    }
+}
@@ -1,7 +1,13 @@
 package translator2;
 
-import java.util.Stack;
-
+import java.io.IOException;
+import java.util.Arrays;
+
+import instrumentation.CompilerMetrics;
+import instrumentation.ICompilerMetrics;
+import instrumentation.InstrumentedScanner;
+import instrumentation.Measurement;
+import lexer.TokenKind;
 import slu.compiler.*;
 
 /* 
@@ -44,202 +50,391 @@ import slu.compiler.*;
  *  
  *  The expression 9 - 5 + 2 * 3 is translated into 9 5 - 2 3 * +
  *  
+ *  With constant folding every subexpression synthesizes the attribute constant, the operands are
+ *  kept pending until an operator is added, and 9 - 5 + 2 * 3 is translated into 10
+ *  
+ *  interpret() evaluates the expression as it is parsed: every subexpression synthesizes its value
+ *  (on the stack of pending operands) and no postfix expression is built
+ *  
  */
 
 public class PostfixTranslator implements IPostfixTranslator {
+    public static final int DEFAULT_NESTING_LIMIT = 100000;
+
+    // Binary operators by token kind: the operator and the precedence (0 for the other tokens)
+    private static final char[] OPERATORS = new char[TokenKind.count()];
+    private static final int[] PRECEDENCE = new int[TokenKind.count()];
+
+    static {
+        OPERATORS[TokenKind.ADD] = '+';
+        OPERATORS[TokenKind.SUBTRACT] = '-';
+        OPERATORS[TokenKind.MULTIPLY] = '*';
+        OPERATORS[TokenKind.DIVIDE] = '/';
+        OPERATORS[TokenKind.MODULUS] = '%';
+
+        PRECEDENCE[TokenKind.ADD] = 1;
+        PRECEDENCE[TokenKind.SUBTRACT] = 1;
+        PRECEDENCE[TokenKind.MULTIPLY] = 2;
+        PRECEDENCE[TokenKind.DIVIDE] = 2;
+        PRECEDENCE[TokenKind.MODULUS] = 2;
+    }
+
     private IToken token;
+    // Integer kind of the current token, the parser decides on it instead of the token name
+    private int kind;
     private IScanner scanner;
-    private String postfix;
-    private Stack<Integer> evaluator = new Stack<>();
+    // Output of the translation, the postfix expression is appended as the expression is parsed
+    private Appendable postfix;
+    // Fold constant subexpressions into a single value (every operand is an int, so the whole expression folds)
+    private boolean fold;
+    // Compute the values of the subexpressions instead of translating them (see interpret)
+    private boolean evaluating;
+    // Values of the operands not yet added to the postfix expression
+    private int[] constants = new int[16];
+    private int pending;
+    // Operators and open parentheses of the expression, with the constant attribute of their left operand
+    private int[] stack = new int[16];
+    private boolean[] constant = new boolean[16];
+    // Line of each operator, a division by zero found when it is folded is reported there
+    private int[] lines = new int[16];
+    private int operators;
+    // Deepest the operator stack went, and the operands and operators added to the output
+    private int maxDepth;
+    private long emitted;
+    // Measurement of the translation (null without metrics)
+    private ICompilerMetrics metrics;
+    private Measurement measurement;
+    // Parentheses an expression can nest, a deeper one is an error instead of growing the stack without bound
+    private int nestingLimit = DEFAULT_NESTING_LIMIT;
+    // Compiled form of the postfix expression (see CompiledPostfix), built along with the String
+    private int[] code = new int[16];
+    private int size;
+    private int depth;
+    private int maxStack;
+    private CompiledPostfix compiled;
     
-    // based off token when parsing, add or pop to stack
-    // come across operator --> operate
     public PostfixTranslator(IScanner lex) {
+        this(lex, false);
+    }
+
+    public PostfixTranslator(IScanner lex, boolean fold) {
+        this(lex, fold, CompilerMetrics.global());
+    }
+
+    // With metrics (not null) the translation is measured and recorded in them
+    public PostfixTranslator(IScanner lex, boolean fold, ICompilerMetrics metrics) {
+        if (metrics != null) {
+            this.metrics = metrics;
+            this.measurement = metrics.start("expression", "postfix");
+
+            lex = new InstrumentedScanner(lex, this.measurement);
+        }
+
         this.scanner = lex;
         this.token = this.scanner.getToken();
+        this.kind = TokenKind.of(this.token);
+        this.fold = fold;
+    }
+
+    public void setNestingLimit(int nestingLimit) {
+        this.nestingLimit = nestingLimit;
     }
 
     @Override
     public String translate() throws Exception {
-        this.postfix = "";
-        
-        expression();
-        
-        return this.postfix;
+        StringBuilder postfix = new StringBuilder();
+
+        translate(postfix);
+
+        return postfix.toString();
     }
-    
-    private void expression() throws Exception {
-        term(); moreTerms();
+
+    @Override
+    public void translate(Appendable output) throws Exception {
+        this.postfix = output;
+        this.pending = 0;
+        this.operators = 0;
+        this.size = 0;
+        this.depth = 0;
+        this.maxStack = 0;
+
+        enter(Measurement.PARSE);
+
+        boolean translated = false;
+
+        try {
+            expression();
+
+            flush();
+
+            translated = true;
+        } finally {
+            record(translated);
+        }
+
+        this.compiled = new CompiledPostfix(Arrays.copyOf(this.code, this.size), this.maxStack);
     }
-    
-    // term --> factor more-factors
-
-    private void term() throws Exception {
-        factor(); moreFactors();
-    }
-        
-    private void moreTerms() throws Exception {
-        if (this.token.getName().equals("add")) {
-            
-            match("add");
-            
-            term();
-                        
-            this.postfix = this.postfix + " + ";
-            
-            moreTerms();
-
-        } else if (this.token.getName().equals("subtract")) {
-            
-            match("subtract");
-            
-            term();
-
-            this.postfix = this.postfix + " - ";
-            
-            moreTerms();
-        } 
-    }
-
-    private void factor() throws Exception {
-        if (this.token.getName().equals("open-parenthesis")) {
-
-            match("open-parenthesis");
+
+    // Evaluate the expression in a single pass, with the errors of evaluate()
+    @Override
+    public int interpret() throws Exception {
+        this.pending = 0;
+        this.operators = 0;
+        this.evaluating = true;
+
+        enter(Measurement.PARSE);
+
+        boolean interpreted = false;
+
+        try {
             expression();
-            match("closed-parenthesis");
+
+            interpreted = true;
+        } finally {
+            this.evaluating = false;
+
+            record(interpreted);
+        }
+
+        return this.constants[--this.pending];
+    }
+
+    // Translate (once) and return the compiled expression
+    @Override
+    public CompiledPostfix compile() throws Exception {
+        if (this.compiled == null) {
+            translate();
         }
-        else if (this.token.getName().equals("int")) {
+
+        return this.compiled;
+    }
+    
+    // expression -> term moreTerms, term -> factor moreFactors, factor -> (expression) | int
+    //
+    // The productions are not called recursively: the operators waiting for their right operand and the
+    // open parentheses are kept on an explicit stack, and an operator is added once the next one has a
+    // lower precedence, which is the order of the right-recursive SDD.
+    //
+    // Returns true if the expression is constant (its value is then the last pending operand)
+    private boolean expression() throws Exception {
+        int base = this.operators;
+        int nesting = 0;
+
+        while (true) {
+            while (this.kind == TokenKind.OPEN_PARENTHESIS) {
+                if (nesting == this.nestingLimit) {
+                    throw new Exception("\nError at line " + this.scanner.getLine() + ": expression nested too deeply");
+                }
+
+                push(TokenKind.OPEN_PARENTHESIS, false);
+                nesting++;
+
+                match(TokenKind.OPEN_PARENTHESIS);
+            }
+
+            boolean constant = factor();
+
+            // moreFactors and moreTerms, closing the parentheses on the way
+
+            while (true) {
+                if (PRECEDENCE[this.kind] > 0) {
+                    constant = reduce(base, PRECEDENCE[this.kind], constant);
+
+                    push(this.kind, constant);
+
+                    match(this.kind);
+                    break;
+                }
+
+                constant = reduce(base, 1, constant);
+
+                if (this.operators == base) {
+                    return constant;
+                }
+
+                match(TokenKind.CLOSED_PARENTHESIS);
+
+                this.operators--;
+                nesting--;
+            }
+        }
+    }
+
+    // Add the operators on the stack down to the last open parenthesis with a precedence of at least
+    // the given one, the right operand of the one on top is given and the result returned
+    private boolean reduce(int base, int precedence, boolean right) throws Exception {
+        while (this.operators > base && PRECEDENCE[this.stack[this.operators - 1]] >= precedence) {
+            this.operators--;
+
+            right = operation(OPERATORS[this.stack[this.operators]], this.constant[this.operators], right, this.lines[this.operators]);
+        }
+
+        return right;
+    }
+
+    // Push an operator (or open parenthesis) with the constant attribute of its left operand
+    private void push(int kind, boolean constant) {
+        if (this.operators == this.stack.length) {
+            this.stack = Arrays.copyOf(this.stack, this.operators * 2);
+            this.constant = Arrays.copyOf(this.constant, this.operators * 2);
+            this.lines = Arrays.copyOf(this.lines, this.operators * 2);
+        }
+
+        this.stack[this.operators] = kind;
+        this.constant[this.operators] = constant;
+        this.lines[this.operators] = this.scanner.getLine();
+        this.operators++;
+
+        if (this.operators > this.maxDepth) {
+            this.maxDepth = this.operators;
+        }
+    }
+
+    private boolean factor() throws Exception {
+        if (this.kind == TokenKind.INT) {
             // Declare a variable number of type IntegerNumber to get the value of a token "int"
             // Down Cast IToken --> Integer Number 
             IntegerNumber number = (IntegerNumber) this.token;
 
             // The value of the token is given by the method getValue()
-            // Add value of token to the Class postfix string
-            this.postfix = this.postfix + number.getValue() + " ";
+            // Add value of token to the Class postfix string (delayed until we know if it is folded)
+            constant(number.getValue());
+
+            match(TokenKind.INT);
 
-            match("int");
+            return true;
         }
+        // factor does not produce epsilon so throw error if no match
         else {
             throw new Exception("\nError at line " + this.scanner.getLine() + ", open parenthesis or int expected");
         }
     }
 
-    // produces four rules (like more terms, but * factor instead of + terms)
-    private void moreFactors() throws Exception {
-        if (this.token.getName().equals("multiply")) {
-            match("multiply");
+    // Fold the operation if both operands are constant, otherwise add the operator to the postfix expression
+    private boolean operation(char operator, boolean left, boolean right, int line) throws Exception {
+        if (this.evaluating) {
+            int num2 = this.constants[--this.pending];
+            int num1 = this.constants[--this.pending];
 
-            factor();
+            constant(operate(num1, num2, operator));
 
-            this.postfix = this.postfix + " * ";
-            
-            moreFactors();
+            return true;
         }
-        else if(this.token.getName().equals("divide")) {
-            match("divide");
 
-            factor();
+        if (this.fold && left && right) {
+            int num2 = this.constants[--this.pending];
+            int num1 = this.constants[--this.pending];
 
-            this.postfix = this.postfix + " / ";
+            if (num2 == 0 && (operator == '/' || operator == '%')) {
+                throw new Exception("\nError at line " + line + ": division by zero");
+            }
+
+            constant(fold(num1, num2, operator));
 
-            moreFactors();
+            return true;
         }
-        else if (this.token.getName().equals("modulus")) {
-            match("modulus");
 
-            factor();
+        flush();
 
-            this.postfix = this.postfix + " % ";
+        this.emitted++;
+        this.postfix.append(' ').append(operator).append(' ');
 
-            moreFactors();
-        }
-    }
-    
-    private void match(String tokenName) throws Exception {
-        if (this.token.getName().equals(tokenName)) {
-            this.token = this.scanner.getToken();
-        } else {
-            throw new Exception("\nError at line " + this.scanner.getLine() + ": " + (this.scanner.getLexeme(tokenName).equals("null") ? "token " + tokenName +
-                                " is not defined in 'lexicon.txt'" : tokenName + " expected"));
-        }
-    }
+        emit(operator);
+        this.depth--;
 
-    // Boolean function to check if the character is an operator
-    private boolean isOperator(char ch) {
-        return ch == '+' || ch == '-' || ch == '*' || ch == '/' || ch == '%';
+        return false;
     }
 
-    // Return the result of postfix operation
-    // Two numbers get popped from stack
-    // Operator being detected from string triggers the function
-    private int operate(int num1, int num2, char operator) throws Exception {
+    private int fold(int num1, int num2, char operator) {
         switch (operator) {
             case '+': return num1 + num2;
             case '-': return num1 - num2;
             case '*': return num1 * num2;
-            case '/': if (num2 == 0) throw new Exception("Division by zero");
-                      return num1 / num2;
-            case '%': return num1 % num2;
-        default: throw new Exception("Unsupported operator: " + operator);
+            case '/': return num1 / num2;
+            default:  return num1 % num2;
         }
     }
 
-    // literally just pop stack
-    // if character is an operator --> pop stack
-    // operate with stack content and operator
-    // push result to stack
+    private void constant(int value) {
+        if (this.pending == this.constants.length) {
+            this.constants = Arrays.copyOf(this.constants, this.pending * 2);
+        }
 
-    public int evaluate() throws Exception {
+        this.constants[this.pending++] = value;
+    }
 
-        System.out.println("postfix string: " + this.postfix);
-        // Iterator to go through postfix
-        int i = 0;
+    // Add the pending operands to the postfix expression in the order they were found
+    private void flush() throws IOException {
+        this.emitted = this.emitted + this.pending;
 
-        while(i < this.postfix.length()) {
-            // Save current character
-            char ch = this.postfix.charAt(i);
+        for (int i = 0; i < this.pending; i++) {
+            this.postfix.append(Integer.toString(this.constants[i])).append(' ');
 
-            // Move to next character if it is a space
-            if (ch == ' ') {
-                i++;
-                continue;
-            }
+            emit(CompiledPostfix.PUSH);
+            emit(this.constants[i]);
 
-            // If it is a digit --> take into account potential numbers with multiple digits
-            else if (Character.isDigit(ch)) {
-                int num = 0;
+            this.depth++;
+            this.maxStack = Math.max(this.maxStack, this.depth);
+        }
 
-                while(i < this.postfix.length() && Character.isDigit(this.postfix.charAt(i))) {
+        this.pending = 0;
+    }
 
-                    // Multiply current value by 10 and add new character converted to an int
-                    // How to convert a char to an int: charAt(i) - '0'
-                    num = (num * 10) + (this.postfix.charAt(i) - '0');
+    private void emit(int instruction) {
+        if (this.size == this.code.length) {
+            this.code = Arrays.copyOf(this.code, this.size * 2);
+        }
 
-                    // Increment i to see if next character is also an int
-                    i++;
-                }
-                // Push into stack and move onto next character in postfix string
-                System.out.println("Pushing number into stack: " + num);
-                evaluator.push(num);
-            }
+        this.code[this.size++] = instruction;
+    }
+    
+    private void enter(int phase) {
+        if (this.measurement != null) {
+            this.measurement.enter(phase);
+        }
+    }
 
-            else if (isOperator(ch)) {
-                System.out.println("Operator trigger: " + ch);
-                int num2 = evaluator.pop();
-                int num1 = evaluator.pop();
+    // The translator parses one expression, so it is recorded once
+    private void record(boolean translated) {
+        if (this.measurement != null) {
+            this.measurement.countInstructions(this.emitted);
+            this.measurement.setMaxDepth(this.maxDepth);
+            this.measurement.setFailed(!translated);
 
-                int result = operate(num1, num2, ch);
-                System.out.println("Result into stack: " + result);
-                evaluator.push(result);
+            this.metrics.record(this.measurement);
+            this.measurement = null;
+        }
+    }
 
-                i++;
-            }
+    private void match(int kind) throws Exception {
+        if (this.kind == kind) {
+            this.token = this.scanner.getToken();
+            this.kind = TokenKind.of(this.token);
+        } else {
+            String tokenName = TokenKind.name(kind);
 
-            else {
-                throw new Exception("Invalid character in expression: " + ch);
-            }
+            throw new Exception("\nError at line " + this.scanner.getLine() + ": " + (this.scanner.getLexeme(tokenName).equals("null") ? "token " + tokenName +
+                                " is not defined in 'lexicon.txt'" : tokenName + " expected"));
         }
-        // Return the last int in the stack
-        return evaluator.pop();
     }
-}
\ No newline at end of file
+
+    // Result of a postfix operation on the two numbers on top of the stack
+    static int operate(int num1, int num2, char operator) throws Exception {
+        switch (operator) {
+            case '+': return num1 + num2;
+            case '-': return num1 - num2;
+            case '*': return num1 * num2;
+            case '/': if (num2 == 0) throw new Exception("Division by zero");
+                      return num1 / num2;
+            case '%': if (num2 == 0) throw new Exception("Division by zero");
+                      return num1 % num2;
+        default: throw new Exception("Unsupported operator: " + operator);
+        }
+    }
+
+    // Evaluate the compiled expression (translated first if it was not)
+    @Override
+    public int evaluate() throws Exception {
+        return compile().evaluate();
+    }
+}